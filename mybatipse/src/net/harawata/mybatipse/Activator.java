@@ -12,17 +12,33 @@
 package net.harawata.mybatipse;
 
 import static net.harawata.mybatipse.MybatipseConstants.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.harawata.mybatipse.mybatis.ConfigRegistry;
+import net.harawata.mybatipse.mybatis.MapperIndex;
+import net.harawata.mybatipse.mybatis.MapperNamespaceCache;
 import net.harawata.mybatipse.mybatis.TypeAliasCache;
+import net.harawata.mybatipse.mybatis.ValidationFingerprints;
+import net.harawata.mybatipse.mybatis.XmlFileScanner;
 import net.harawata.mybatipse.preference.ScopedFieldEditorPreferencePage;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResourceChangeEvent;
-import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.ProjectScope;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.preferences.IScopeContext;
 import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.util.IPropertyChangeListener;
@@ -39,7 +55,27 @@ public class Activator extends AbstractUIPlugin
 {
 	private static Activator plugin;
 
-	private IResourceChangeListener resourceChangeListener;
+	private static final int MAX_VALIDATION_THREADS = 64;
+
+	private static final ThreadFactory WORKER_FACTORY = new ThreadFactory()
+	{
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "Mybatipse validation worker-"
+				+ count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private MybatipseResourceChangeListener resourceChangeListener;
+
+	private IElementChangedListener elementChangedListener;
+
+	private ThreadPoolExecutor validationExecutor;
 
 	public Activator()
 	{
@@ -49,23 +85,52 @@ public class Activator extends AbstractUIPlugin
 	{
 		super.start(context);
 
+		MapperIndex.getInstance().load(getStateLocation());
+		ValidationFingerprints.getInstance().load(getStateLocation());
+
 		IWorkspace workspace = ResourcesPlugin.getWorkspace();
 		resourceChangeListener = new MybatipseResourceChangeListener();
 		workspace.addResourceChangeListener(resourceChangeListener,
-			IResourceChangeEvent.POST_CHANGE | IResourceChangeEvent.PRE_BUILD);
+			IResourceChangeEvent.POST_CHANGE | IResourceChangeEvent.PRE_BUILD
+				| IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+
+		elementChangedListener = new MybatipseElementChangedListener();
+		JavaCore.addElementChangedListener(elementChangedListener);
 
 		plugin = this;
+
+		// Projects opened later are warmed up by the resource change listener.
+		for (IProject project : workspace.getRoot().getProjects())
+		{
+			TypeAliasCache.getInstance().scheduleWarmUp(project);
+		}
 	}
 
 	public void stop(BundleContext context) throws Exception
 	{
+		MapperIndex.getInstance().save(getStateLocation());
+		ValidationFingerprints.getInstance().save(getStateLocation());
+
 		plugin = null;
 
+		synchronized (this)
+		{
+			if (validationExecutor != null)
+			{
+				validationExecutor.shutdownNow();
+				validationExecutor = null;
+			}
+		}
+
 		IWorkspace workspace = ResourcesPlugin.getWorkspace();
 		if (workspace != null && resourceChangeListener != null)
 		{
 			workspace.removeResourceChangeListener(resourceChangeListener);
 		}
+		if (elementChangedListener != null)
+		{
+			JavaCore.removeElementChangedListener(elementChangedListener);
+		}
 
 		super.stop(context);
 	}
@@ -75,6 +140,32 @@ public class Activator extends AbstractUIPlugin
 		return plugin;
 	}
 
+	/**
+	 * Returns the executor shared by the validation builds. Its threads are grown to the
+	 * requested number (up to {@value #MAX_VALIDATION_THREADS}) and end when idle.
+	 */
+	public synchronized ExecutorService getValidationExecutor(int parallelism)
+	{
+		int threads = Math.min(parallelism, MAX_VALIDATION_THREADS);
+		if (validationExecutor == null)
+		{
+			validationExecutor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), WORKER_FACTORY);
+			validationExecutor.allowCoreThreadTimeOut(true);
+		}
+		else if (validationExecutor.getMaximumPoolSize() < threads)
+		{
+			validationExecutor.setMaximumPoolSize(threads);
+			validationExecutor.setCorePoolSize(threads);
+		}
+		return validationExecutor;
+	}
+
+	public MybatipseResourceChangeListener getResourceChangeListener()
+	{
+		return resourceChangeListener;
+	}
+
 	public static IPreferenceStore getPreferenceStore(final IProject project)
 	{
 		ScopedPreferenceStore store = null;
@@ -92,15 +183,72 @@ public class Activator extends AbstractUIPlugin
 			@Override
 			public void propertyChange(PropertyChangeEvent event)
 			{
+				boolean scanChanged = PREF_SCAN_INCLUDES.equals(event.getProperty())
+					|| PREF_SCAN_EXCLUDES.equals(event.getProperty());
 				if (project == null)
+				{
+					if (scanChanged)
+					{
+						XmlFileScanner.getInstance().clear();
+						ConfigRegistry.getInstance().clear();
+						MapperNamespaceCache.getInstance().clear();
+					}
 					TypeAliasCache.getInstance().clear();
+					ValidationFingerprints.getInstance().clear();
+				}
 				else
+				{
+					if (scanChanged)
+					{
+						XmlFileScanner.getInstance().remove(project);
+						ConfigRegistry.getInstance().remove(project);
+						MapperNamespaceCache.getInstance().remove(project);
+					}
 					TypeAliasCache.getInstance().remove(project);
+					ValidationFingerprints.getInstance().remove(project);
+				}
 			}
 		});
 		return store;
 	}
 
+	/**
+	 * Reads a preference without creating a preference store. Use this instead of
+	 * {@link #getPreferenceStore(IProject)} for frequent reads as each store registers a
+	 * listener that is never removed.
+	 */
+	public static int getPreferenceInt(IProject project, String key, int defaultValue)
+	{
+		return Platform.getPreferencesService().getInt(PLUGIN_ID, key, defaultValue,
+			getScopeContexts(project));
+	}
+
+	/**
+	 * @see #getPreferenceInt(IProject, String, int)
+	 */
+	public static String getPreferenceString(IProject project, String key, String defaultValue)
+	{
+		return Platform.getPreferencesService().getString(PLUGIN_ID, key, defaultValue,
+			getScopeContexts(project));
+	}
+
+	/**
+	 * @return The project scope if the project has its own settings, otherwise
+	 *         <code>null</code> i.e. instance and default scopes.
+	 */
+	private static IScopeContext[] getScopeContexts(IProject project)
+	{
+		if (project == null)
+			return null;
+		ProjectScope projectScope = new ProjectScope(project);
+		if (!projectScope.getNode(PLUGIN_ID).getBoolean(
+			ScopedFieldEditorPreferencePage.USE_PROJECT_SETTINGS, false))
+			return null;
+		return new IScopeContext[]{
+			projectScope
+		};
+	}
+
 	public static ImageDescriptor getImageDescriptor(String path)
 	{
 		return imageDescriptorFromPlugin(PLUGIN_ID, path);
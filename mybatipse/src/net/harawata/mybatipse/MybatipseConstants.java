@@ -30,8 +30,22 @@ public class MybatipseConstants
 
 	public static final String PREF_CUSTOM_TYPE_ALIASES = "prefCustomTypeAliases"; //$NON-NLS-1$
 
+	public static final String PREF_VALIDATION_PARALLELISM = "prefValidationParallelism"; //$NON-NLS-1$
+
+	public static final String PREF_BEAN_CACHE_MAX_WEIGHT = "prefBeanCacheMaxWeight"; //$NON-NLS-1$
+
+	public static final String PREF_BEAN_CACHE_SOFT_VALUES = "prefBeanCacheSoftValues"; //$NON-NLS-1$
+
+	public static final String PREF_SCAN_INCLUDES = "prefScanIncludes"; //$NON-NLS-1$
+
+	public static final String PREF_SCAN_EXCLUDES = "prefScanExcludes"; //$NON-NLS-1$
+
+	public static final String PREF_REVALIDATION_DELAY = "prefRevalidationDelay"; //$NON-NLS-1$
+
 	public static final String DEBUG_BEAN_PROPERTY_CACHE = PLUGIN_ID + "/debug/beanPropertyCache";
 
+	public static final String DEBUG_MAPPER_DISCOVERY = PLUGIN_ID + "/debug/mapperDiscovery";
+
 	public static final IContentType mapperContentType;
 
 	public static final IContentType configContentType;
@@ -0,0 +1,350 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.harawata.mybatipse.bean.BeanPropertyCache;
+import net.harawata.mybatipse.mybatis.JavaDependencyIndex;
+import net.harawata.mybatipse.mybatis.MapperMethodCache;
+import net.harawata.mybatipse.mybatis.MapperNamespaceCache;
+import net.harawata.mybatipse.mybatis.RevalidationQueue;
+import net.harawata.mybatipse.mybatis.TypeAliasCache;
+import net.harawata.mybatipse.mybatis.ValidationFingerprints;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * Invalidates the caches built from Java elements.<br>
+ * Mapper method tables follow reconcile deltas because they are built from working copies.
+ * Bean properties and type aliases are invalidated when a compilation unit is saved, and only
+ * for the top level types whose fields, methods, super types or annotations have changed.
+ * Structural changes reported while reconciling are kept until the unit is saved because the
+ * delta of the save itself does not contain them.
+ *
+ * @author Iwao AVE!
+ */
+public class MybatipseElementChangedListener implements IElementChangedListener
+{
+	private static final int MEMBER_FLAGS = IJavaElementDelta.F_MODIFIERS
+		| IJavaElementDelta.F_ANNOTATIONS | IJavaElementDelta.F_SUPER_TYPES;
+
+	/**
+	 * Simple names of the top level types changed in unsaved working copies.
+	 */
+	private final Map<ICompilationUnit, Set<String>> pendingChanges = new ConcurrentHashMap<ICompilationUnit, Set<String>>();
+
+	@Override
+	public void elementChanged(ElementChangedEvent event)
+	{
+		visit(event.getDelta(), event.getType());
+	}
+
+	private void visit(IJavaElementDelta delta, int eventType)
+	{
+		IJavaElement element = delta.getElement();
+		switch (element.getElementType())
+		{
+			case IJavaElement.JAVA_MODEL:
+			case IJavaElement.PACKAGE_FRAGMENT:
+				visitChildren(delta, eventType);
+				break;
+			case IJavaElement.JAVA_PROJECT:
+				if (delta.getKind() == IJavaElementDelta.REMOVED
+					|| (delta.getFlags() & (IJavaElementDelta.F_CLOSED
+						| IJavaElementDelta.F_CLASSPATH_CHANGED | IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED)) != 0)
+				{
+					MapperMethodCache.getInstance().remove(element.getElementName());
+					ValidationFingerprints.getInstance().classpathChanged(element.getElementName());
+					removePendingChanges((IJavaProject)element);
+				}
+				else
+				{
+					visitChildren(delta, eventType);
+				}
+				break;
+			case IJavaElement.PACKAGE_FRAGMENT_ROOT:
+				if (delta.getKind() != IJavaElementDelta.CHANGED
+					|| (delta.getFlags() & IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED) != 0)
+				{
+					// Binary mappers may have changed.
+					MapperMethodCache.getInstance().remove(element.getJavaProject().getElementName());
+					ValidationFingerprints.getInstance().classpathChanged(
+						element.getJavaProject().getElementName());
+				}
+				else
+				{
+					visitChildren(delta, eventType);
+				}
+				break;
+			case IJavaElement.COMPILATION_UNIT:
+				MapperMethodCache.getInstance().remove(element.getPath());
+				// Non-primary working copies (e.g. of compare editors) never become the content of
+				// the unit. Their discard is reported as removal.
+				if (((ICompilationUnit)element).getOwner() != null)
+					break;
+				if (eventType == ElementChangedEvent.POST_RECONCILE)
+					onReconcile(delta);
+				else
+					onCompilationUnitChange(delta);
+				break;
+			case IJavaElement.CLASS_FILE:
+				MapperMethodCache.getInstance().remove(element.getJavaProject().getElementName());
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void visitChildren(IJavaElementDelta delta, int eventType)
+	{
+		for (IJavaElementDelta child : delta.getAffectedChildren())
+		{
+			visit(child, eventType);
+		}
+	}
+
+	private void onReconcile(IJavaElementDelta delta)
+	{
+		ICompilationUnit unit = ((ICompilationUnit)delta.getElement()).getPrimary();
+		Set<String> changedTypes = new HashSet<String>();
+		collectChangedTypes(delta, changedTypes);
+		if (changedTypes.isEmpty())
+			return;
+		Set<String> pending = pendingChanges.get(unit);
+		if (pending == null)
+		{
+			pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			pendingChanges.put(unit, pending);
+		}
+		pending.addAll(changedTypes);
+	}
+
+	private void onCompilationUnitChange(IJavaElementDelta delta)
+	{
+		ICompilationUnit unit = ((ICompilationUnit)delta.getElement()).getPrimary();
+		Set<String> pending = pendingChanges.remove(unit);
+		Set<String> changedTypes = new HashSet<String>();
+		if (pending != null)
+			changedTypes.addAll(pending);
+
+		int flags = delta.getFlags();
+		if (delta.getKind() == IJavaElementDelta.REMOVED)
+		{
+			addRemovedTypes(unit, changedTypes);
+		}
+		else if (delta.getKind() == IJavaElementDelta.ADDED)
+		{
+			addAllTypes(unit, changedTypes);
+		}
+		else if ((flags & IJavaElementDelta.F_FINE_GRAINED) != 0)
+		{
+			collectChangedTypes(delta, changedTypes);
+		}
+		else if ((flags & IJavaElementDelta.F_CONTENT) != 0)
+		{
+			// Changed on disk, e.g. by a checkout or an external tool. No detail is available.
+			addAllTypes(unit, changedTypes);
+		}
+		// Otherwise a working copy has been opened or discarded. Pending changes are applied
+		// anyway as the caches may have read the unsaved buffer.
+
+		if (!changedTypes.isEmpty())
+			onTypesChange(unit, changedTypes, delta.getKind() == IJavaElementDelta.REMOVED);
+	}
+
+	private void addAllTypes(ICompilationUnit unit, Set<String> changedTypes)
+	{
+		try
+		{
+			for (IType type : unit.getTypes())
+			{
+				changedTypes.add(type.getElementName());
+			}
+		}
+		catch (JavaModelException e)
+		{
+			Activator.log(Status.ERROR, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * The unit has no children any more, so the types it declared are the primary type and the
+	 * types of the package known to the caches that cannot be found any more.
+	 */
+	private void addRemovedTypes(ICompilationUnit unit, Set<String> changedTypes)
+	{
+		String elementName = unit.getElementName();
+		changedTypes.add(elementName.substring(0, elementName.length() - 5));
+		IJavaProject javaProject = unit.getJavaProject();
+		String packageName = unit.getParent().getElementName();
+		String prefix = packageName.length() == 0 ? "" : packageName + ".";
+		Set<String> knownTypes = JavaDependencyIndex.getInstance().getTypes(prefix);
+		knownTypes.addAll(BeanPropertyCache.getCachedTypes(javaProject.getProject(), prefix));
+		for (String qualifiedName : knownTypes)
+		{
+			String simpleName = qualifiedName.substring(prefix.length());
+			int dot = simpleName.indexOf('.');
+			if (dot > -1)
+			{
+				// Names in the default package cannot be told from names in other packages.
+				if (prefix.length() == 0)
+					continue;
+				simpleName = simpleName.substring(0, dot);
+			}
+			if (changedTypes.contains(simpleName))
+				continue;
+			try
+			{
+				if (javaProject.findType(prefix + simpleName) == null)
+					changedTypes.add(simpleName);
+			}
+			catch (JavaModelException e)
+			{
+				Activator.log(Status.ERROR, e.getMessage(), e);
+			}
+		}
+	}
+
+	private void removePendingChanges(IJavaProject project)
+	{
+		for (Iterator<ICompilationUnit> it = pendingChanges.keySet().iterator(); it.hasNext();)
+		{
+			if (project.equals(it.next().getJavaProject()))
+				it.remove();
+		}
+	}
+
+	/**
+	 * Collects the simple names of the top level types that have structural changes.<br>
+	 * Changed imports or package declaration affect how every type of the unit is resolved.
+	 */
+	private void collectChangedTypes(IJavaElementDelta delta, Set<String> changedTypes)
+	{
+		for (IJavaElementDelta child : delta.getAffectedChildren())
+		{
+			IJavaElement element = child.getElement();
+			switch (element.getElementType())
+			{
+				case IJavaElement.TYPE:
+					if (child.getKind() != IJavaElementDelta.CHANGED
+						|| (child.getFlags() & MEMBER_FLAGS) != 0)
+						changedTypes.add(getTopLevelType(element).getElementName());
+					else
+						collectChangedTypes(child, changedTypes);
+					break;
+				case IJavaElement.FIELD:
+					changedTypes.add(getTopLevelType(element).getElementName());
+					break;
+				case IJavaElement.IMPORT_CONTAINER:
+				case IJavaElement.IMPORT_DECLARATION:
+				case IJavaElement.PACKAGE_DECLARATION:
+					addAllTypes((ICompilationUnit)element.getAncestor(IJavaElement.COMPILATION_UNIT),
+						changedTypes);
+					break;
+				case IJavaElement.METHOD:
+					// Parameter names and return types of mapper methods and accessors only show up
+					// as content changes.
+					changedTypes.add(getTopLevelType(element).getElementName());
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private IType getTopLevelType(IJavaElement element)
+	{
+		IType type = (IType)(element.getElementType() == IJavaElement.TYPE ? element
+			: element.getAncestor(IJavaElement.TYPE));
+		while (type.getDeclaringType() != null)
+			type = type.getDeclaringType();
+		return type;
+	}
+
+	private void onTypesChange(ICompilationUnit unit, Set<String> simpleTypeNames,
+		boolean unitRemoved)
+	{
+		IProject project = unit.getJavaProject().getProject();
+		Set<String> changedTypes = new HashSet<String>();
+		boolean aliasesChanged = false;
+		for (String simpleTypeName : simpleTypeNames)
+		{
+			IType type = unit.getType(simpleTypeName);
+			String qualifiedName = type.getFullyQualifiedName();
+
+			// Mappers using subclasses are affected by the change of properties as well.
+			changedTypes.add(qualifiedName);
+			BeanPropertyCache.collectSubclasses(project, qualifiedName, changedTypes);
+			BeanPropertyCache.clearBeanPropertyCache(project, qualifiedName);
+
+			String superType = null;
+			try
+			{
+				if (type.exists())
+					superType = type.getSuperclassName();
+			}
+			catch (JavaModelException e)
+			{
+				Activator.log(Status.ERROR, e.getMessage(), e);
+			}
+			if (superType != null && "MyBatisModule".equals(superType))
+			{
+				TypeAliasCache.getInstance().remove(project);
+				aliasesChanged = true;
+			}
+			else if (unitRemoved || !type.exists())
+			{
+				TypeAliasCache.getInstance().removeType(project.getName(), qualifiedName);
+			}
+			else
+			{
+				if (TypeAliasCache.getInstance().isInPackage(project.getName(), qualifiedName))
+				{
+					if (TypeAliasCache.getInstance().put(project.getName(), type, simpleTypeName))
+						aliasesChanged = true;
+				}
+			}
+		}
+		ValidationFingerprints.getInstance().typesChanged(changedTypes);
+		// Mappers using an alias that was not found have not recorded the type.
+		if (aliasesChanged)
+			ValidationFingerprints.getInstance().remove(project);
+
+		Set<IFile> mapperFiles = JavaDependencyIndex.getInstance().getDependents(
+			changedTypes);
+		for (String simpleTypeName : simpleTypeNames)
+		{
+			IFile mapperFile = MapperNamespaceCache.getInstance().get(unit.getJavaProject(),
+				unit.getType(simpleTypeName).getFullyQualifiedName(), null);
+			if (mapperFile != null)
+				mapperFiles.add(mapperFile);
+		}
+		// validate mapper xml files that use the types:
+		RevalidationQueue.getInstance().addAll(mapperFiles);
+	}
+}
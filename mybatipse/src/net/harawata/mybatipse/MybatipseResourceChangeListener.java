@@ -11,13 +11,22 @@
 
 package net.harawata.mybatipse;
 
-import static net.harawata.mybatipse.MybatipseConstants.configContentType;
-import static net.harawata.mybatipse.MybatipseConstants.mapperContentType;
-import static net.harawata.mybatipse.MybatipseConstants.springConfigContentType;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import net.harawata.mybatipse.bean.BeanPropertyCache;
 import net.harawata.mybatipse.mybatis.ConfigRegistry;
+import net.harawata.mybatipse.mybatis.JavaDependencyIndex;
+import net.harawata.mybatipse.mybatis.MapperIndex;
+import net.harawata.mybatipse.mybatis.MapperIndex.Kind;
+import net.harawata.mybatipse.mybatis.MapperMethodCache;
 import net.harawata.mybatipse.mybatis.MapperNamespaceCache;
+import net.harawata.mybatipse.mybatis.MapperReferenceGraph;
 import net.harawata.mybatipse.mybatis.TypeAliasCache;
+import net.harawata.mybatipse.mybatis.ValidationFingerprints;
+import net.harawata.mybatipse.mybatis.XmlFileScanner;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -28,41 +37,80 @@ import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
-import org.eclipse.core.resources.WorkspaceJob;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.content.IContentDescription;
-import org.eclipse.core.runtime.content.IContentType;
-import org.eclipse.jdt.core.ICompilationUnit;
-import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.JavaCore;
-import org.eclipse.jdt.core.JavaModelException;
-import org.eclipse.wst.validation.ValidationFramework;
+import org.eclipse.core.runtime.jobs.Job;
 
 /**
+ * Keeps the caches in sync with the workspace.<br>
+ * Only cheap invalidations are done during the notification. Changed XML files are recorded
+ * and read later by a background job, which applies the difference from the previous state
+ * of each file, so that saving a file does not wait for them. The builder processes the
+ * pending files before validating.
+ *
  * @author Iwao AVE!
  */
 public class MybatipseResourceChangeListener implements IResourceChangeListener
 {
+	private final Set<IFile> changedXmlFiles = new LinkedHashSet<IFile>();
+
+	/**
+	 * Held while processing so that the builder waits for the files taken by the job.
+	 */
+	private final Object processLock = new Object();
+
+	private final Job xmlChangeJob = new Job("Updating MyBatis caches")
+	{
+		@Override
+		protected IStatus run(IProgressMonitor monitor)
+		{
+			return processXmlChanges(monitor) ? Status.OK_STATUS : Status.CANCEL_STATUS;
+		}
+	};
+
+	public MybatipseResourceChangeListener()
+	{
+		super();
+		xmlChangeJob.setSystem(true);
+	}
+
 	public void resourceChanged(final IResourceChangeEvent event)
 	{
-		if (event.getType() == IResourceChangeEvent.PRE_BUILD
+		if (event.getType() == IResourceChangeEvent.PRE_CLOSE
+			|| event.getType() == IResourceChangeEvent.PRE_DELETE)
+		{
+			IResource resource = event.getResource();
+			if (resource instanceof IProject)
+				BeanPropertyCache.clearBeanPropertyCache((IProject)resource);
+			return;
+		}
+		else if (event.getType() == IResourceChangeEvent.PRE_BUILD
 			&& event.getBuildKind() == IncrementalProjectBuilder.CLEAN_BUILD)
 		{
 			Object source = event.getSource();
 			if (source instanceof IWorkspace)
 			{
+				XmlFileScanner.getInstance().clear();
 				ConfigRegistry.getInstance().clear();
 				MapperNamespaceCache.getInstance().clear();
+				MapperIndex.getInstance().clear();
+				MapperMethodCache.getInstance().clear();
+				MapperReferenceGraph.getInstance().clear();
+				ValidationFingerprints.getInstance().clear();
 				BeanPropertyCache.clearBeanPropertyCache();
 			}
 			else if (source instanceof IProject)
 			{
 				IProject project = (IProject)source;
+				XmlFileScanner.getInstance().remove(project);
 				ConfigRegistry.getInstance().remove(project);
 				MapperNamespaceCache.getInstance().remove(project);
+				MapperIndex.getInstance().remove(project);
+				MapperMethodCache.getInstance().remove(project.getName());
+				MapperReferenceGraph.getInstance().remove(project);
+				ValidationFingerprints.getInstance().remove(project);
 				BeanPropertyCache.clearBeanPropertyCache(project);
 			}
 		}
@@ -90,16 +138,16 @@ public class MybatipseResourceChangeListener implements IResourceChangeListener
 
 					IProject project = resource.getProject();
 					IFile file = (IFile)resource;
-					if (!file.exists())
-						return false;
 					if ("xml".equals(file.getFileExtension()))
 					{
-						onXmlChange(delta, resource, project, file);
-						return true;
+						// The file may have been added, removed or changed its kind.
+						XmlFileScanner.getInstance().remove(project);
 					}
-					else if ("java".equals(file.getFileExtension()))
+					if (!file.exists())
+						return false;
+					if ("xml".equals(file.getFileExtension()))
 					{
-						onJavaChange(delta, project, file);
+						queueXmlChange(file);
 						return true;
 					}
 				}
@@ -107,110 +155,94 @@ public class MybatipseResourceChangeListener implements IResourceChangeListener
 				{
 					if (delta.getKind() == IResourceDelta.REMOVED)
 					{
+						XmlFileScanner.getInstance().remove((IProject)resource);
 						ConfigRegistry.getInstance().remove((IProject)resource);
 						MapperNamespaceCache.getInstance().remove((IProject)resource);
+						MapperIndex.getInstance().remove((IProject)resource);
+						JavaDependencyIndex.getInstance().remove((IProject)resource);
+						MapperReferenceGraph.getInstance().remove((IProject)resource);
+						ValidationFingerprints.getInstance().remove((IProject)resource);
+					}
+					else if (delta.getKind() == IResourceDelta.ADDED
+						|| (delta.getFlags() & (IResourceDelta.OPEN | IResourceDelta.DESCRIPTION)) != 0)
+					{
+						// Opened, imported or MyBatis nature added.
+						TypeAliasCache.getInstance().scheduleWarmUp((IProject)resource);
 					}
 				}
 				return true;
 			}
+		};
+		try
+		{
+			delta.accept(visitor);
+		}
+		catch (CoreException e)
+		{
+			Activator.log(Status.ERROR, e.getMessage(), e);
+		}
+	}
 
-			protected void onJavaChange(IResourceDelta delta, IProject project, IFile file)
+	/**
+	 * Reads the changed XML files that have not been processed yet.
+	 *
+	 * @return <code>false</code> if canceled. The remaining files are kept for the next call.
+	 */
+	public boolean processXmlChanges(IProgressMonitor monitor)
+	{
+		synchronized (processLock)
+		{
+			List<IFile> files;
+			synchronized (changedXmlFiles)
 			{
-				ICompilationUnit compilationUnit = (ICompilationUnit)JavaCore.create(file);
-				String elementName = compilationUnit.getElementName();
-				String simpleTypeName = elementName.substring(0, elementName.length() - 5);
-				IType type = compilationUnit.getType(simpleTypeName);
-				String qualifiedName = type.getFullyQualifiedName();
-
-				BeanPropertyCache.clearBeanPropertyCache(project, qualifiedName);
-
-				String superType = null;
-				try
-				{
-					if (type.exists())
-						superType = type.getSuperclassName();
-				}
-				catch (JavaModelException e)
-				{
-					Activator.log(Status.ERROR, e.getMessage(), e);
-				}
-				if (superType != null && "MyBatisModule".equals(superType))
-				{
-					TypeAliasCache.getInstance().remove(project);
-				}
-				else if (delta.getKind() == IResourceDelta.REMOVED)
-				{
-					TypeAliasCache.getInstance().removeType(project.getName(), qualifiedName);
-				}
-				else
-				{
-					if (TypeAliasCache.getInstance().isInPackage(project.getName(), qualifiedName))
-					{
-						TypeAliasCache.getInstance().put(project.getName(), type, simpleTypeName);
-					}
-				}
-
-				final IFile mapperFile = MapperNamespaceCache.getInstance().get(
-					JavaCore.create(project), qualifiedName, null);
-				if (mapperFile != null)
-				{
-					// validate corresponding mapper xml file:
-					WorkspaceJob job = new WorkspaceJob("Validating " + mapperFile)
-					{
-						@Override
-						public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException
-						{
-							ValidationFramework.getDefault().validate(mapperFile, monitor);
-							return Status.OK_STATUS;
-						}
-					};
-					job.schedule();
-				}
+				files = new ArrayList<IFile>(changedXmlFiles);
+				changedXmlFiles.clear();
 			}
-
-			protected void onXmlChange(IResourceDelta delta, IResource resource, IProject project,
-				IFile file)
+			for (int i = 0; i < files.size(); i++)
 			{
-				if (delta.getKind() == IResourceDelta.REMOVED || !file.exists())
+				if (monitor.isCanceled())
 				{
-					// Cannot get content-type. Try removing the cache anyway.
-					ConfigRegistry.getInstance().remove(project, file);
-					MapperNamespaceCache.getInstance().remove(project.getName(), file);
-				}
-				else
-				{
-					try
-					{
-						IContentDescription contentDesc = file.getContentDescription();
-						if (contentDesc != null)
-						{
-							IContentType contentType = contentDesc.getContentType();
-							if (contentType != null)
-							{
-								if (contentType.isKindOf(configContentType)
-									|| contentType.isKindOf(springConfigContentType))
-								{
-									// In case there are multiple config files in the project,
-									// just remove the currently registered config.
-									ConfigRegistry.getInstance().remove(project);
-								}
-								else if (contentType.isKindOf(mapperContentType))
-								{
-									MapperNamespaceCache.getInstance().put(project.getName(), file);
-								}
-							}
-						}
-					}
-					catch (CoreException e)
+					synchronized (changedXmlFiles)
 					{
-						Activator.log(Status.ERROR, e.getMessage(), e);
+						changedXmlFiles.addAll(files.subList(i, files.size()));
 					}
+					return false;
 				}
+				IFile file = files.get(i);
+				// Removed in the meantime. The builder cleans up removed files.
+				if (file.exists())
+					onXmlChange(file.getProject(), file);
 			}
-		};
+			return true;
+		}
+	}
+
+	private void queueXmlChange(IFile file)
+	{
+		synchronized (changedXmlFiles)
+		{
+			changedXmlFiles.add(file);
+		}
+		xmlChangeJob.schedule();
+	}
+
+	private void onXmlChange(IProject project, IFile file)
+	{
 		try
 		{
-			delta.accept(visitor);
+			Kind kind = MapperIndex.getInstance().getKind(file);
+			if (kind == Kind.CONFIG || kind == Kind.SPRING_CONFIG)
+			{
+				ConfigRegistry.getInstance().put(project, file, kind.getContentType());
+				TypeAliasCache.getInstance().scheduleWarmUp(project);
+				return;
+			}
+			// May have been a config file.
+			ConfigRegistry.getInstance().remove(project, file);
+			if (kind == Kind.MAPPER)
+				MapperNamespaceCache.getInstance().put(project.getName(), file);
+			else
+				MapperNamespaceCache.getInstance().remove(project.getName(), file);
 		}
 		catch (CoreException e)
 		{
@@ -18,6 +18,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -30,13 +31,22 @@ import javax.xml.crypto.Data;
 
 import net.harawata.mybatipse.Activator;
 import net.harawata.mybatipse.MybatipseConstants;
+import net.harawata.mybatipse.mybatis.JavaDependencyIndex;
 import net.harawata.mybatipse.util.NameUtil;
+import net.harawata.mybatipse.util.SingleFlightLoader;
+import net.harawata.mybatipse.util.SingleFlightLoader.KeyFilter;
+import net.harawata.mybatipse.util.SingleFlightLoader.Loader;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.IPreferenceChangeListener;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.PreferenceChangeEvent;
+import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.eclipse.jdt.core.Flags;
+import org.eclipse.jdt.core.IAnnotatable;
+import org.eclipse.jdt.core.IAnnotation;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IField;
 import org.eclipse.jdt.core.IJavaElement;
@@ -58,9 +68,21 @@ public class BeanPropertyCache
 	private static boolean DEBUG = Activator.getDefault().isDebugging()
 		&& Boolean.parseBoolean(Platform.getDebugOption(MybatipseConstants.DEBUG_BEAN_PROPERTY_CACHE));
 
-	private static final Map<IProject, Map<String, BeanPropertyInfo>> projectCache = new ConcurrentHashMap<IProject, Map<String, BeanPropertyInfo>>();
+	private static final BeanPropertyStore projectCache = new BeanPropertyStore(
+		getMaxWeightPreference(), getSoftValuesPreference());
 
-	private static final Map<IProject, Map<String, Set<String>>> subclassCache = new ConcurrentHashMap<IProject, Map<String, Set<String>>>();
+	/**
+	 * Keyed by <code>projectName/qualifiedName</code>.
+	 */
+	private static final SingleFlightLoader<String, BeanPropertyInfo> loader = new SingleFlightLoader<String, BeanPropertyInfo>();
+
+	/**
+	 * Superclasses found by the loads running on the current thread.
+	 */
+	private static final ThreadLocal<Set<String>> superclassRecording = new ThreadLocal<Set<String>>();
+
+	private static final List<String> lombokAnnotations = Arrays.asList("Data", "Getter",
+		"Setter", "Value");
 
 	private static final List<String> ignoredTypes = Arrays.asList(String.class.getName(),
 		Byte.class.getName(), Long.class.getName(), Short.class.getName(), Integer.class.getName(),
@@ -69,52 +91,150 @@ public class BeanPropertyCache
 		Object.class.getName(), Map.class.getName(), HashMap.class.getName(), List.class.getName(),
 		ArrayList.class.getName(), Collection.class.getName(), Iterator.class.getName());
 
+	static
+	{
+		InstanceScope.INSTANCE.getNode(MybatipseConstants.PLUGIN_ID).addPreferenceChangeListener(
+			new IPreferenceChangeListener()
+			{
+				@Override
+				public void preferenceChange(PreferenceChangeEvent event)
+				{
+					if (MybatipseConstants.PREF_BEAN_CACHE_MAX_WEIGHT.equals(event.getKey())
+						|| MybatipseConstants.PREF_BEAN_CACHE_SOFT_VALUES.equals(event.getKey()))
+					{
+						projectCache.configure(getMaxWeightPreference(), getSoftValuesPreference());
+					}
+				}
+			});
+	}
+
 	public static void clearBeanPropertyCache()
 	{
 		if (DEBUG)
 			Activator.log(IStatus.INFO, "Remove bean property caches.");
+		loader.invalidateAll();
 		projectCache.clear();
-		subclassCache.clear();
 	}
 
 	public static void clearBeanPropertyCache(IProject project)
 	{
 		if (DEBUG)
 			Activator.log(IStatus.INFO, "Remove bean property cache for project " + project.getName());
+		final String keyPrefix = project.getName() + '/';
+		loader.invalidateAll(new KeyFilter<String>()
+		{
+			@Override
+			public boolean accept(String key)
+			{
+				return key.startsWith(keyPrefix);
+			}
+		});
 		projectCache.remove(project);
-		subclassCache.remove(project);
 	}
 
 	public static void clearBeanPropertyCache(IProject project, String qualifiedName)
 	{
-		Map<String, BeanPropertyInfo> beans = projectCache.get(project);
-		if (beans != null)
+		String topLevelClass = removeExtension(qualifiedName);
+		// Running loads may have read the old source of the class or its inner classes.
+		// Loads of the subclasses are invalidated with them below.
+		final String key = project.getName() + '/' + topLevelClass;
+		loader.invalidateAll(new KeyFilter<String>()
+		{
+			@Override
+			public boolean accept(String loadKey)
+			{
+				if (!loadKey.startsWith(key))
+					return false;
+				if (loadKey.length() == key.length())
+					return true;
+				char c = loadKey.charAt(key.length());
+				return c == '.' || c == '<' || c == '$';
+			}
+		});
+		projectCache.remove(project, topLevelClass);
+		if (DEBUG)
+			Activator.log(IStatus.INFO, "Remove bean property cache for class " + qualifiedName);
+		// Clear cache for inner classes.
+		String innerClassPrefix = topLevelClass + ".";
+		for (String fqn : projectCache.removeByPrefix(project, innerClassPrefix))
 		{
-			String topLevelClass = removeExtension(qualifiedName);
-			beans.remove(topLevelClass);
 			if (DEBUG)
-				Activator.log(IStatus.INFO, "Remove bean property cache for class " + qualifiedName);
-			// Clear cache for inner classes.
-			String innerClassPrefix = topLevelClass + ".";
-			for (Iterator<Entry<String, BeanPropertyInfo>> it = beans.entrySet().iterator(); it.hasNext();)
+				Activator.log(IStatus.INFO, "Remove bean property cache for inner class " + fqn);
+			clearSubclassCache(project, fqn);
+		}
+		clearSubclassCache(project, topLevelClass);
+	}
+
+	/**
+	 * @return The cached types whose names start with the prefix.
+	 */
+	public static List<String> getCachedTypes(IProject project, String prefix)
+	{
+		return projectCache.getNamesByPrefix(project, prefix);
+	}
+
+	/**
+	 * @return The number of lookups that found the properties in the cache.
+	 */
+	public static long getHitCount()
+	{
+		return projectCache.getHitCount();
+	}
+
+	/**
+	 * @return The number of lookups that had to parse the type.
+	 */
+	public static long getMissCount()
+	{
+		return projectCache.getMissCount();
+	}
+
+	/**
+	 * @return The number of entries evicted by the size limit or reclaimed by GC.
+	 */
+	public static long getEvictionCount()
+	{
+		return projectCache.getEvictionCount();
+	}
+
+	public static String getStatistics()
+	{
+		return "Bean property cache: size=" + projectCache.size() + ", weight="
+			+ projectCache.getTotalWeight() + ", hits=" + getHitCount() + ", misses="
+			+ getMissCount() + ", evictions=" + getEvictionCount();
+	}
+
+	/**
+	 * Collects the known subclasses of the type (and its inner classes) recursively.<br>
+	 * Subclasses are known only if their properties have been cached.
+	 */
+	public static void collectSubclasses(IProject project, String qualifiedName,
+		Set<String> result)
+	{
+		Map<String, Set<String>> subclassMap = projectCache.peekSubclassMap(project);
+		if (subclassMap == null)
+			return;
+		String topLevelClass = removeExtension(qualifiedName);
+		String innerClassPrefix = topLevelClass + ".";
+		for (Entry<String, Set<String>> entry : subclassMap.entrySet())
+		{
+			String superclass = entry.getKey();
+			if (superclass.equals(topLevelClass) || superclass.startsWith(innerClassPrefix))
 			{
-				Entry<String, BeanPropertyInfo> entry = it.next();
-				String fqn = entry.getKey();
-				if (fqn.startsWith(innerClassPrefix))
+				for (String subclass : entry.getValue())
 				{
-					if (DEBUG)
-						Activator.log(IStatus.INFO, "Remove bean property cache for inner class " + fqn);
-					it.remove();
-					clearSubclassCache(project, fqn);
+					if (result.add(subclass))
+						collectSubclasses(project, subclass, result);
 				}
 			}
-			clearSubclassCache(project, topLevelClass);
 		}
 	}
 
 	private static void clearSubclassCache(IProject project, String qualifiedName)
 	{
-		Map<String, Set<String>> subclassMap = subclassMapForProject(project);
+		Map<String, Set<String>> subclassMap = projectCache.peekSubclassMap(project);
+		if (subclassMap == null)
+			return;
 		Set<String> subclasses = subclassMap.remove(qualifiedName);
 		if (subclasses != null)
 		{
@@ -125,42 +245,117 @@ public class BeanPropertyCache
 		}
 	}
 
-	public static BeanPropertyInfo getBeanPropertyInfo(IJavaProject javaProject, String fqn)
+	public static BeanPropertyInfo getBeanPropertyInfo(final IJavaProject javaProject, String fqn)
 	{
 		if (fqn == null || ignoredTypes.contains(fqn))
 		{
 			return null;
 		}
-		String qualifiedName = removeExtension(fqn);
-		IProject project = javaProject.getProject();
-		Map<String, BeanPropertyInfo> beans = projectCache.get(project);
-		if (beans == null)
+		final String qualifiedName = removeExtension(fqn);
+		JavaDependencyIndex.record(qualifiedName);
+		final IProject project = javaProject.getProject();
+		BeanPropertyInfo beanProps = projectCache.get(project, qualifiedName);
+		if (beanProps == null)
 		{
-			beans = new ConcurrentHashMap<String, BeanPropertyInfo>();
-			projectCache.put(project, beans);
+			beanProps = loader.get(project.getName() + '/' + qualifiedName,
+				new Loader<BeanPropertyInfo>()
+				{
+					@Override
+					public BeanPropertyInfo getCached()
+					{
+						return projectCache.peek(project, qualifiedName);
+					}
+
+					@Override
+					public BeanPropertyInfo load()
+					{
+						Map<String, Set<String>> subclassMap = projectCache.getSubclassMap(project);
+						final Map<String, String> readableFields = new LinkedHashMap<String, String>();
+						final Map<String, String> writableFields = new LinkedHashMap<String, String>();
+						Set<String> outer = superclassRecording.get();
+						Set<String> superclasses = new HashSet<String>();
+						superclassRecording.set(superclasses);
+						try
+						{
+							parseBean(javaProject, qualifiedName, readableFields, writableFields,
+								subclassMap);
+						}
+						finally
+						{
+							superclassRecording.set(outer);
+						}
+						return new BeanPropertyInfo(readableFields, writableFields, superclasses);
+					}
+
+					@Override
+					public void publish(BeanPropertyInfo value)
+					{
+						projectCache.put(project, qualifiedName, value);
+						if (DEBUG)
+							Activator.log(IStatus.INFO, getStatistics());
+					}
+				});
 		}
-		Map<String, Set<String>> subclassMap = subclassMapForProject(project);
-		BeanPropertyInfo beanProps = beans.get(qualifiedName);
-		if (beanProps == null)
+		// Mappers using a cached subclass are affected by the superclass as well.
+		for (String superclass : beanProps.getSuperclasses())
 		{
-			final Map<String, String> readableFields = new LinkedHashMap<String, String>();
-			final Map<String, String> writableFields = new LinkedHashMap<String, String>();
-			parseBean(javaProject, qualifiedName, readableFields, writableFields, subclassMap);
-			beanProps = new BeanPropertyInfo(readableFields, writableFields);
+			JavaDependencyIndex.record(superclass);
 		}
-		beans.put(qualifiedName, beanProps);
 		return beanProps;
 	}
 
-	private static Map<String, Set<String>> subclassMapForProject(IProject project)
+	/**
+	 * Caches the properties of a source type from an AST that has been created with bindings,
+	 * e.g. in a batch of {@link ASTParser#createASTs}. Does nothing if the type is cached.
+	 */
+	public static void putBeanPropertyInfo(IJavaProject javaProject, String qualifiedName,
+		CompilationUnit astUnit)
 	{
-		Map<String, Set<String>> subclassMap = subclassCache.get(project.getProject());
-		if (subclassMap == null)
+		IProject project = javaProject.getProject();
+		if (projectCache.contains(project, qualifiedName))
+			return;
+		if (DEBUG)
+			Activator.log(IStatus.INFO, "Parsing properties of a prepared source class "
+				+ qualifiedName);
+		final Map<String, String> readableFields = new LinkedHashMap<String, String>();
+		final Map<String, String> writableFields = new LinkedHashMap<String, String>();
+		Set<String> outer = superclassRecording.get();
+		Set<String> superclasses = new HashSet<String>();
+		superclassRecording.set(superclasses);
+		try
+		{
+			astUnit.accept(new BeanPropertyVisitor(javaProject, qualifiedName,
+				NameUtil.extractTypeParams(qualifiedName), readableFields, writableFields,
+				projectCache.getSubclassMap(project)));
+		}
+		finally
 		{
-			subclassMap = new ConcurrentHashMap<String, Set<String>>();
-			subclassCache.put(project.getProject(), subclassMap);
+			superclassRecording.set(outer);
 		}
-		return subclassMap;
+		projectCache.put(project, qualifiedName, new BeanPropertyInfo(readableFields,
+			writableFields, superclasses));
+	}
+
+	private static long getMaxWeightPreference()
+	{
+		return Platform.getPreferencesService().getLong(MybatipseConstants.PLUGIN_ID,
+			MybatipseConstants.PREF_BEAN_CACHE_MAX_WEIGHT, 100000L, null);
+	}
+
+	private static boolean getSoftValuesPreference()
+	{
+		return Platform.getPreferencesService().getBoolean(MybatipseConstants.PLUGIN_ID,
+			MybatipseConstants.PREF_BEAN_CACHE_SOFT_VALUES, false, null);
+	}
+
+	private static void recordSuperclass(String superclass, BeanPropertyInfo superclassInfo)
+	{
+		Set<String> superclasses = superclassRecording.get();
+		if (superclasses == null)
+			return;
+		superclasses.add(NameUtil.stripTypeArguments(superclass));
+		if (superclassInfo != null)
+			superclasses.addAll(superclassInfo.getSuperclasses());
 	}
 
 	protected static void parseBean(IJavaProject project, String qualifiedNameWithArgs,
@@ -170,6 +365,7 @@ public class BeanPropertyCache
 		try
 		{
 			final String qualifiedName = NameUtil.stripTypeArguments(qualifiedNameWithArgs);
+			JavaDependencyIndex.record(qualifiedName);
 			final IType type = project.findType(qualifiedName);
 			if (type != null)
 			{
@@ -181,11 +377,25 @@ public class BeanPropertyCache
 				}
 				else
 				{
-					if (DEBUG)
-						Activator.log(IStatus.INFO, "Parsing properties of a source class " + qualifiedName);
-					parseSource(project, type, qualifiedName,
-						NameUtil.extractTypeParams(qualifiedNameWithArgs), readableFields, writableFields,
-						subclassMap);
+					List<String> typeParams = NameUtil.extractTypeParams(qualifiedNameWithArgs);
+					long start = DEBUG ? System.nanoTime() : 0L;
+					if (typeParams.isEmpty()
+						&& parseSourceModel(project, type, qualifiedName, readableFields, writableFields,
+							subclassMap))
+					{
+						if (DEBUG)
+							Activator.log(IStatus.INFO, "Parsed properties of a source class "
+								+ qualifiedName + " from the Java model in "
+								+ (System.nanoTime() - start) / 1000L + " us");
+					}
+					else
+					{
+						parseSource(project, type, qualifiedName, typeParams, readableFields,
+							writableFields, subclassMap);
+						if (DEBUG)
+							Activator.log(IStatus.INFO, "Parsed properties of a source class "
+								+ qualifiedName + " from AST in " + (System.nanoTime() - start) / 1000L + " us");
+					}
 				}
 			}
 		}
@@ -213,6 +423,7 @@ public class BeanPropertyCache
 				subclassMap.put(superclass, subclasses);
 			}
 			subclasses.add(type.getFullyQualifiedName());
+			recordSuperclass(superclass, null);
 			parseBean(project, superclass, readableFields, writableFields, subclassMap);
 		}
 	}
@@ -271,6 +482,186 @@ public class BeanPropertyCache
 		}
 	}
 
+	/**
+	 * Reads the properties of a source type from the Java model without creating an AST.
+	 * 
+	 * @return <code>false</code> if the model cannot tell the properties exactly (e.g. Lombok,
+	 *         type parameters or unresolvable types) and the AST should be used instead. The maps
+	 *         are not modified in that case. Enums are left to the AST as well, which ignores
+	 *         them, because the model lists enum constants as public fields.
+	 */
+	protected static boolean parseSourceModel(IJavaProject project, final IType type,
+		final String qualifiedName, final Map<String, String> readableFields,
+		final Map<String, String> writableFields, final Map<String, Set<String>> subclassMap)
+		throws JavaModelException
+	{
+		if (type.isInterface() || type.isEnum() || type.getTypeParameters().length > 0
+			|| hasLombokAnnotation(type))
+			return false;
+
+		String superclass = null;
+		String superclassSignature = type.getSuperclassTypeSignature();
+		if (superclassSignature != null)
+		{
+			if (Signature.getTypeArguments(superclassSignature).length > 0)
+				return false;
+			superclass = resolveTypeSignature(type, superclassSignature);
+			if (superclass == null)
+				return false;
+		}
+
+		// Children are in source order as the AST visitor sees them.
+		final Map<String, String> readables = new LinkedHashMap<String, String>();
+		final Map<String, String> writables = new LinkedHashMap<String, String>();
+		for (IJavaElement child : type.getChildren())
+		{
+			if (child.getElementType() == IJavaElement.FIELD)
+			{
+				IField field = (IField)child;
+				int flags = field.getFlags();
+				if (!Flags.isPublic(flags) && Flags.isFinal(flags))
+					continue;
+				if (hasLombokAnnotation(field))
+					return false;
+				String fieldType = resolvePropertyType(type, field.getTypeSignature());
+				if (fieldType == null)
+					return false;
+				if (Flags.isPublic(flags))
+					readables.put(field.getElementName(), fieldType);
+				if (!Flags.isFinal(flags))
+					writables.put(field.getElementName(), fieldType);
+			}
+			else if (child.getElementType() == IJavaElement.METHOD)
+			{
+				IMethod method = (IMethod)child;
+				if (method.isConstructor() || !Flags.isPublic(method.getFlags()))
+					continue;
+				String methodName = method.getElementName();
+				String[] parameterTypes = method.getParameterTypes();
+				String returnType = method.getReturnType();
+				if (Signature.SIG_VOID.equals(returnType))
+				{
+					if (BeanPropertyVisitor.isSetter(methodName, parameterTypes.length))
+					{
+						String paramType = resolvePropertyType(type, parameterTypes[0]);
+						if (paramType == null)
+							return false;
+						writables.put(BeanPropertyVisitor.getFieldNameFromAccessor(methodName), paramType);
+					}
+				}
+				else if (BeanPropertyVisitor.isGetter(methodName, parameterTypes.length))
+				{
+					String propertyType = resolvePropertyType(type, returnType);
+					if (propertyType == null)
+						return false;
+					readables.put(BeanPropertyVisitor.getFieldNameFromAccessor(methodName), propertyType);
+				}
+			}
+		}
+
+		readableFields.putAll(readables);
+		writableFields.putAll(writables);
+		if (superclass != null)
+			parseSuperclass(project, qualifiedName, superclass, readableFields, writableFields,
+				subclassMap);
+		return true;
+	}
+
+	/**
+	 * Resolves the type of a property in the same way as {@link BeanPropertyVisitor} i.e. the
+	 * element type for collections and the value type for maps.
+	 * 
+	 * @return The qualified name or <code>null</code> if the type cannot be resolved from the
+	 *         model.
+	 */
+	private static String resolvePropertyType(IType type, String signature)
+		throws JavaModelException
+	{
+		String[] typeArguments = Signature.getTypeArguments(signature);
+		if (typeArguments.length == 0)
+			return resolveTypeSignature(type, signature);
+		if (Signature.getArrayCount(signature) > 0)
+			return null;
+		String typeArgument = typeArguments[typeArguments.length > 1 ? 1 : 0];
+		if (Signature.getTypeArguments(typeArgument).length > 0)
+			return null;
+		return resolveTypeSignature(type, typeArgument);
+	}
+
+	private static String resolveTypeSignature(IType type, String signature)
+		throws JavaModelException
+	{
+		int kind = Signature.getTypeSignatureKind(signature);
+		if (kind != Signature.CLASS_TYPE_SIGNATURE && kind != Signature.BASE_TYPE_SIGNATURE
+			&& kind != Signature.ARRAY_TYPE_SIGNATURE)
+			return null;
+		String elementType = Signature.getElementType(signature);
+		StringBuilder name = new StringBuilder();
+		int elementKind = Signature.getTypeSignatureKind(elementType);
+		if (elementKind == Signature.BASE_TYPE_SIGNATURE)
+		{
+			name.append(Signature.toString(elementType));
+		}
+		else if (elementKind == Signature.CLASS_TYPE_SIGNATURE)
+		{
+			String[][] resolved = type.resolveType(Signature.toString(elementType));
+			if (resolved == null || resolved.length != 1)
+				return null;
+			if (resolved[0][0].length() > 0)
+				name.append(resolved[0][0]).append('.');
+			name.append(resolved[0][1]);
+		}
+		else
+		{
+			return null;
+		}
+		for (int i = Signature.getArrayCount(signature); i > 0; i--)
+			name.append("[]");
+		return name.toString();
+	}
+
+	private static boolean hasLombokAnnotation(IAnnotatable annotatable)
+		throws JavaModelException
+	{
+		for (IAnnotation annotation : annotatable.getAnnotations())
+		{
+			String name = annotation.getElementName();
+			if (name.startsWith("lombok.") || lombokAnnotations.contains(name))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the properties of the superclass and registers the subclass.<br>
+	 * A superclass without type arguments is cached and shared by its subclasses.
+	 */
+	static void parseSuperclass(IJavaProject project, String qualifiedName,
+		String superclassFqn, Map<String, String> readableFields,
+		Map<String, String> writableFields, Map<String, Set<String>> subclassMap)
+	{
+		String superclassGenericFqn = NameUtil.stripTypeArguments(superclassFqn);
+		Set<String> subclasses = subclassMap.get(superclassGenericFqn);
+		if (subclasses == null)
+		{
+			subclasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			subclassMap.put(superclassGenericFqn, subclasses);
+		}
+		subclasses.add(qualifiedName);
+		BeanPropertyInfo superclassInfo = superclassGenericFqn.equals(superclassFqn)
+			? getBeanPropertyInfo(project, superclassFqn) : null;
+		recordSuperclass(superclassGenericFqn, superclassInfo);
+		if (superclassInfo != null)
+		{
+			readableFields.putAll(superclassInfo.getReadableFields());
+			writableFields.putAll(superclassInfo.getWritableFields());
+		}
+		else
+		{
+			parseBean(project, superclassFqn, readableFields, writableFields, subclassMap);
+		}
+	}
+
 	protected static void parseSource(IJavaProject project, final IType type,
 		final String qualifiedName, List<String> typeParams,
 		final Map<String, String> readableFields, final Map<String, String> writableFields,
@@ -11,7 +11,9 @@
 
 package net.harawata.mybatipse.bean;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Iwao AVE!
@@ -22,11 +24,22 @@ public class BeanPropertyInfo
 
 	private Map<String, String> writableFields;
 
+	private Set<String> superclasses;
+
 	public BeanPropertyInfo(Map<String, String> readableFields, Map<String, String> writableFields)
+	{
+		this(readableFields, writableFields, Collections.<String> emptySet());
+	}
+
+	public BeanPropertyInfo(
+		Map<String, String> readableFields,
+		Map<String, String> writableFields,
+		Set<String> superclasses)
 	{
 		super();
 		this.readableFields = readableFields;
 		this.writableFields = writableFields;
+		this.superclasses = superclasses;
 	}
 
 	public Map<String, String> getReadableFields()
@@ -38,4 +51,12 @@ public class BeanPropertyInfo
 	{
 		return writableFields;
 	}
+
+	/**
+	 * @return The superclasses whose properties have been inherited.
+	 */
+	public Set<String> getSuperclasses()
+	{
+		return superclasses;
+	}
 }
@@ -0,0 +1,384 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.bean;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.resources.IProject;
+
+/**
+ * Bean properties of all the projects in LRU maps bounded by their total weight.<br>
+ * The weight of an entry is the number of its properties plus one. Each project has its own
+ * segment and lock so that validations of different projects do not contend; the least
+ * recently used entry across the segments is evicted first. Values can optionally be held
+ * through soft references so that the garbage collector may reclaim them under memory
+ * pressure.<br>
+ * Each segment also keeps the subclasses found while parsing the project. A subclass is
+ * forgotten when its entry is evicted or removed, so the relations are bounded by the entries.
+ *
+ * @author Iwao AVE!
+ */
+class BeanPropertyStore
+{
+	private final ConcurrentMap<IProject, Segment> segments = new ConcurrentHashMap<IProject, Segment>();
+
+	private final AtomicLong totalWeight = new AtomicLong();
+
+	/**
+	 * Incremented on each access to order the entries of different segments.
+	 */
+	private final AtomicLong clock = new AtomicLong();
+
+	private volatile long maxWeight;
+
+	private volatile boolean softValues;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	public BeanPropertyInfo get(IProject project, String qualifiedName)
+	{
+		Segment segment = segments.get(project);
+		BeanPropertyInfo info = segment == null ? null : segment.get(qualifiedName);
+		if (info == null)
+		{
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return info;
+	}
+
+	/**
+	 * Same as {@link #get(IProject, String)} without updating the statistics.
+	 */
+	public BeanPropertyInfo peek(IProject project, String qualifiedName)
+	{
+		Segment segment = segments.get(project);
+		return segment == null ? null : segment.get(qualifiedName);
+	}
+
+	public boolean contains(IProject project, String qualifiedName)
+	{
+		return peek(project, qualifiedName) != null;
+	}
+
+	public void put(IProject project, String qualifiedName, BeanPropertyInfo info)
+	{
+		getSegment(project).put(qualifiedName, new StoreEntry(info, softValues));
+		evict();
+	}
+
+	public void remove(IProject project, String qualifiedName)
+	{
+		Segment segment = segments.get(project);
+		if (segment != null)
+			segment.remove(qualifiedName);
+	}
+
+	/**
+	 * Removes the entries of the project whose names start with the prefix.
+	 *
+	 * @return The removed names.
+	 */
+	public List<String> removeByPrefix(IProject project, String prefix)
+	{
+		Segment segment = segments.get(project);
+		return segment == null ? Collections.<String> emptyList() : segment
+			.removeByPrefix(prefix);
+	}
+
+	/**
+	 * @return The names of the entries of the project that start with the prefix.
+	 */
+	public List<String> getNamesByPrefix(IProject project, String prefix)
+	{
+		Segment segment = segments.get(project);
+		return segment == null ? Collections.<String> emptyList() : segment
+			.getNamesByPrefix(prefix);
+	}
+
+	public void remove(IProject project)
+	{
+		Segment segment = segments.remove(project);
+		if (segment != null)
+			segment.clear();
+	}
+
+	public void clear()
+	{
+		for (Iterator<Segment> it = segments.values().iterator(); it.hasNext();)
+		{
+			Segment segment = it.next();
+			it.remove();
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return superclass -> known subclasses in the project. Modifiable.
+	 */
+	public Map<String, Set<String>> getSubclassMap(IProject project)
+	{
+		return getSegment(project).subclassMap;
+	}
+
+	/**
+	 * @return The subclass map or <code>null</code> if nothing of the project is stored.
+	 */
+	public Map<String, Set<String>> peekSubclassMap(IProject project)
+	{
+		Segment segment = segments.get(project);
+		return segment == null ? null : segment.subclassMap;
+	}
+
+	public void configure(long maxWeight, boolean softValues)
+	{
+		this.maxWeight = maxWeight;
+		this.softValues = softValues;
+		evict();
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for (Segment segment : segments.values())
+		{
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public long getTotalWeight()
+	{
+		return totalWeight.get();
+	}
+
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	private Segment getSegment(IProject project)
+	{
+		Segment segment = segments.get(project);
+		if (segment == null)
+		{
+			segment = new Segment();
+			Segment existing = segments.putIfAbsent(project, segment);
+			if (existing != null)
+				segment = existing;
+		}
+		return segment;
+	}
+
+	/**
+	 * Evicts the least recently used entries until the total weight fits. Only one segment is
+	 * locked at a time.
+	 */
+	private void evict()
+	{
+		while (maxWeight > 0L && totalWeight.get() > maxWeight)
+		{
+			Segment eldestSegment = null;
+			long eldestAccess = Long.MAX_VALUE;
+			for (Segment segment : segments.values())
+			{
+				long access = segment.getEldestAccess();
+				if (access < eldestAccess)
+				{
+					eldestAccess = access;
+					eldestSegment = segment;
+				}
+			}
+			if (eldestSegment == null)
+				return;
+			if (eldestSegment.evictEldest())
+				evictionCount.incrementAndGet();
+		}
+	}
+
+	BeanPropertyStore(long maxWeight, boolean softValues)
+	{
+		super();
+		this.maxWeight = maxWeight;
+		this.softValues = softValues;
+	}
+
+	private class Segment
+	{
+		private final LinkedHashMap<String, StoreEntry> entries = new LinkedHashMap<String, StoreEntry>(
+			64, 0.75f, true);
+
+		private final Map<String, Set<String>> subclassMap = new ConcurrentHashMap<String, Set<String>>();
+
+		private synchronized BeanPropertyInfo get(String qualifiedName)
+		{
+			StoreEntry entry = entries.get(qualifiedName);
+			if (entry == null)
+				return null;
+			BeanPropertyInfo info = entry.getInfo();
+			if (info == null)
+			{
+				// Reclaimed by GC.
+				remove(qualifiedName);
+				evictionCount.incrementAndGet();
+				return null;
+			}
+			entry.lastAccess = clock.incrementAndGet();
+			return info;
+		}
+
+		private synchronized void put(String qualifiedName, StoreEntry entry)
+		{
+			entry.lastAccess = clock.incrementAndGet();
+			StoreEntry previous = entries.put(qualifiedName, entry);
+			if (previous != null)
+				totalWeight.addAndGet(-previous.weight);
+			totalWeight.addAndGet(entry.weight);
+		}
+
+		private synchronized void remove(String qualifiedName)
+		{
+			StoreEntry removed = entries.remove(qualifiedName);
+			if (removed != null)
+			{
+				totalWeight.addAndGet(-removed.weight);
+				removeSubclass(qualifiedName);
+			}
+		}
+
+		private synchronized List<String> removeByPrefix(String prefix)
+		{
+			List<String> removed = new ArrayList<String>();
+			for (Iterator<Entry<String, StoreEntry>> it = entries.entrySet().iterator(); it
+				.hasNext();)
+			{
+				Entry<String, StoreEntry> entry = it.next();
+				if (entry.getKey().startsWith(prefix))
+				{
+					totalWeight.addAndGet(-entry.getValue().weight);
+					it.remove();
+					removed.add(entry.getKey());
+				}
+			}
+			for (String qualifiedName : removed)
+			{
+				removeSubclass(qualifiedName);
+			}
+			return removed;
+		}
+
+		private synchronized List<String> getNamesByPrefix(String prefix)
+		{
+			List<String> names = new ArrayList<String>();
+			for (String qualifiedName : entries.keySet())
+			{
+				if (qualifiedName.startsWith(prefix))
+					names.add(qualifiedName);
+			}
+			return names;
+		}
+
+		private synchronized void clear()
+		{
+			for (StoreEntry entry : entries.values())
+			{
+				totalWeight.addAndGet(-entry.weight);
+			}
+			entries.clear();
+			subclassMap.clear();
+		}
+
+		private synchronized int size()
+		{
+			return entries.size();
+		}
+
+		/**
+		 * @return The last access to the eldest entry or {@link Long#MAX_VALUE} if empty.
+		 */
+		private synchronized long getEldestAccess()
+		{
+			// The eldest entry comes first in access order.
+			Iterator<StoreEntry> it = entries.values().iterator();
+			return it.hasNext() ? it.next().lastAccess : Long.MAX_VALUE;
+		}
+
+		private synchronized boolean evictEldest()
+		{
+			Iterator<Entry<String, StoreEntry>> it = entries.entrySet().iterator();
+			if (!it.hasNext())
+				return false;
+			Entry<String, StoreEntry> eldest = it.next();
+			totalWeight.addAndGet(-eldest.getValue().weight);
+			it.remove();
+			removeSubclass(eldest.getKey());
+			return true;
+		}
+
+		private void removeSubclass(String qualifiedName)
+		{
+			// Empty sets are kept as a parser may be adding to them.
+			for (Set<String> subclasses : subclassMap.values())
+			{
+				subclasses.remove(qualifiedName);
+			}
+		}
+	}
+
+	private static class StoreEntry
+	{
+		private final Object value;
+
+		private final int weight;
+
+		private volatile long lastAccess;
+
+		private StoreEntry(BeanPropertyInfo info, boolean soft)
+		{
+			this.value = soft ? new SoftReference<BeanPropertyInfo>(info) : info;
+			this.weight = 1 + info.getReadableFields().size() + info.getWritableFields().size();
+		}
+
+		@SuppressWarnings("unchecked")
+		private BeanPropertyInfo getInfo()
+		{
+			return value instanceof SoftReference ? ((SoftReference<BeanPropertyInfo>)value).get()
+				: (BeanPropertyInfo)value;
+		}
+	}
+}
@@ -13,11 +13,9 @@ package net.harawata.mybatipse.bean;
 
 import java.beans.Introspector;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import net.harawata.mybatipse.util.NameUtil;
 
@@ -236,15 +234,8 @@ public class BeanPropertyVisitor extends ASTVisitor
 						superclassFqnBuilder.append('>');
 						superclassFqn = superclassFqnBuilder.toString();
 					}
-					Set<String> subclasses = subclassMap.get(superclassGenericFqn);
-					if (subclasses == null)
-					{
-						subclasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
-						subclassMap.put(superclassGenericFqn, subclasses);
-					}
-					subclasses.add(qualifiedName);
-					BeanPropertyCache.parseBean(project, superclassFqn, readableFields, writableFields,
-						subclassMap);
+					BeanPropertyCache.parseSuperclass(project, qualifiedName, superclassFqn,
+						readableFields, writableFields, subclassMap);
 				}
 			}
 		}
@@ -11,25 +11,19 @@
 
 package net.harawata.mybatipse.mybatis;
 
-import static net.harawata.mybatipse.MybatipseConstants.*;
-
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-import net.harawata.mybatipse.Activator;
+import net.harawata.mybatipse.mybatis.MapperIndex.Kind;
+import net.harawata.mybatipse.mybatis.XmlFileScanner.ScanResult;
+import net.harawata.mybatipse.util.SingleFlightLoader;
+import net.harawata.mybatipse.util.SingleFlightLoader.Loader;
 
-import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.IResourceProxy;
-import org.eclipse.core.resources.IResourceProxyVisitor;
-import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.content.IContentDescription;
 import org.eclipse.core.runtime.content.IContentType;
 import org.eclipse.jdt.core.IJavaProject;
-import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaCore;
 
 /**
  * @author Iwao AVE!
@@ -40,43 +34,90 @@ public class ConfigRegistry
 
 	private Map<String, Map<IFile, IContentType>> configMap = new ConcurrentHashMap<String, Map<IFile, IContentType>>();
 
+	private final SingleFlightLoader<String, Map<IFile, IContentType>> loader = new SingleFlightLoader<String, Map<IFile, IContentType>>();
+
 	// public void put(IProject project, IFile configFile)
 	// {
 	// configMap.put(project.getName(), configFile);
 	// TypeAliasCache.getInstance().remove(project);
 	// }
 
-	public Map<IFile, IContentType> get(IJavaProject javaProject)
+	public Map<IFile, IContentType> get(final IJavaProject javaProject)
 	{
-		IProject project = javaProject.getProject();
-		Map<IFile, IContentType> files = configMap.get(project.getName());
-		if (files == null)
+		final IProject project = javaProject.getProject();
+		return loader.get(project.getName(), new Loader<Map<IFile, IContentType>>()
 		{
-			files = search(javaProject);
-			configMap.put(project.getName(), files);
-			TypeAliasCache.getInstance().remove(project);
-		}
-		return files;
+			@Override
+			public Map<IFile, IContentType> getCached()
+			{
+				return configMap.get(project.getName());
+			}
+
+			@Override
+			public Map<IFile, IContentType> load()
+			{
+				return search(javaProject);
+			}
+
+			@Override
+			public void publish(Map<IFile, IContentType> files)
+			{
+				configMap.put(project.getName(), files);
+				TypeAliasCache.getInstance().remove(project);
+			}
+		});
 	}
 
 	public void clear()
 	{
+		loader.invalidateAll();
 		configMap.clear();
 		TypeAliasCache.getInstance().clear();
 	}
 
 	public void remove(IProject project)
 	{
+		loader.invalidate(project.getName());
 		configMap.remove(project.getName());
 		TypeAliasCache.getInstance().remove(project);
 	}
 
+	/**
+	 * Registers the added or modified config file and updates the type aliases by what the file
+	 * declares.
+	 */
+	public void put(IProject project, IFile file, IContentType contentType)
+	{
+		Map<IFile, IContentType> files = configMap.get(project.getName());
+		if (files == null)
+		{
+			// A running search may have missed the file.
+			remove(project);
+			ValidationFingerprints.getInstance().remove(project);
+			return;
+		}
+		files.put(file, contentType);
+		ValidationFingerprints.getInstance().remove(project);
+		TypeAliasCache.getInstance().updateConfig(JavaCore.create(project), file, contentType);
+	}
+
+	/**
+	 * Unregisters the file if it has been a config file.
+	 */
 	public void remove(IProject project, IFile file)
 	{
 		Map<IFile, IContentType> files = configMap.get(project.getName());
-		if (files != null)
-			files.remove(file);
-		TypeAliasCache.getInstance().remove(project);
+		if (files == null)
+		{
+			// A running search may have read the file already.
+			loader.invalidate(project.getName());
+			return;
+		}
+		if (files.remove(file) != null)
+		{
+			TypeAliasCache.getInstance().updateConfig(JavaCore.create(project), file, null);
+			ValidationFingerprints.getInstance().remove(project);
+		}
 	}
 
 	/**
@@ -89,22 +130,16 @@ public class ConfigRegistry
 	private Map<IFile, IContentType> search(IJavaProject project)
 	{
 		final Map<IFile, IContentType> configFiles = new ConcurrentHashMap<IFile, IContentType>();
-		try
+		ScanResult result = XmlFileScanner.getInstance().scan(project.getProject());
+		for (Kind kind : new Kind[]{
+			Kind.CONFIG, Kind.SPRING_CONFIG
+		})
 		{
-			project.getResource().accept(new ConfigVisitor(configFiles), IContainer.NONE);
-
-			for (IPackageFragmentRoot root : project.getPackageFragmentRoots())
+			for (IFile file : result.getFiles(kind))
 			{
-				if (root.getKind() != IPackageFragmentRoot.K_SOURCE)
-					continue;
-				root.getResource().accept(new ConfigVisitor(configFiles), IContainer.NONE);
+				configFiles.put(file, kind.getContentType());
 			}
 		}
-		catch (CoreException e)
-		{
-			Activator.log(Status.ERROR, "Searching MyBatis Config xml failed.", e);
-		}
-
 		return configFiles;
 	}
 
@@ -117,37 +152,4 @@ public class ConfigRegistry
 	{
 		super();
 	}
-
-	private class ConfigVisitor implements IResourceProxyVisitor
-	{
-		private final Map<IFile, IContentType> configFiles;
-
-		private ConfigVisitor(Map<IFile, IContentType> configFiles)
-		{
-			this.configFiles = configFiles;
-		}
-
-		@Override
-		public boolean visit(IResourceProxy proxy) throws CoreException
-		{
-			if (proxy.isDerived())
-				return false;
-
-			if (proxy.getType() == IResource.FILE && proxy.getName().endsWith(".xml"))
-			{
-				IFile file = (IFile)proxy.requestResource();
-				IContentDescription contentDesc = file.getContentDescription();
-				if (contentDesc != null)
-				{
-					IContentType contentType = contentDesc.getContentType();
-					if (contentType != null
-						&& (contentType.isKindOf(configContentType) || contentType.isKindOf(springConfigContentType)))
-					{
-						configFiles.put(file, contentType);
-					}
-				}
-			}
-			return true;
-		}
-	}
 }
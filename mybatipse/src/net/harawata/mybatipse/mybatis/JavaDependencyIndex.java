@@ -0,0 +1,205 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import net.harawata.mybatipse.util.NameUtil;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+
+/**
+ * Keeps which Java types each mapper file depended on when it was validated last time.<br>
+ * While {@link XmlValidator} validates a file, type lookups made on the same thread (bean
+ * properties, mapper methods, type aliases) are recorded. When a Java type changes, the
+ * mapper files that used it can be revalidated without a full build.
+ *
+ * @author Iwao AVE!
+ */
+public class JavaDependencyIndex
+{
+	private static final JavaDependencyIndex INSTANCE = new JavaDependencyIndex();
+
+	private final ThreadLocal<Set<String>> recording = new ThreadLocal<Set<String>>();
+
+	private final ConcurrentNavigableMap<String, Set<IFile>> dependents = new ConcurrentSkipListMap<String, Set<IFile>>();
+
+	private final Map<IFile, Set<String>> dependencies = new ConcurrentHashMap<IFile, Set<String>>();
+
+	/**
+	 * Starts recording the types looked up by the current thread.
+	 */
+	public void beginRecording()
+	{
+		recording.set(new HashSet<String>());
+	}
+
+	/**
+	 * Stops recording and replaces the dependencies of the file with the recorded types.
+	 */
+	public void endRecording(IFile file)
+	{
+		Set<String> types = recording.get();
+		recording.remove();
+		if (types != null)
+			put(file, types);
+	}
+
+	/**
+	 * Stops recording and keeps the dependencies recorded by the previous validation, e.g. when
+	 * the validation has been canceled or failed and the recorded types are incomplete.
+	 */
+	public void cancelRecording()
+	{
+		recording.remove();
+	}
+
+	/**
+	 * Replaces the dependencies of the file, e.g. with the ones recorded in a previous session.
+	 */
+	public void put(IFile file, Set<String> types)
+	{
+		removeDependencies(file);
+		dependencies.put(file, types);
+		for (String type : types)
+		{
+			Set<IFile> files = dependents.get(type);
+			if (files == null)
+			{
+				files = Collections.newSetFromMap(new ConcurrentHashMap<IFile, Boolean>());
+				Set<IFile> existing = dependents.putIfAbsent(type, files);
+				if (existing != null)
+					files = existing;
+			}
+			files.add(file);
+		}
+	}
+
+	/**
+	 * Records the type if the current thread is validating a file. Otherwise does nothing.
+	 */
+	public static void record(String qualifiedName)
+	{
+		if (qualifiedName == null || qualifiedName.length() == 0)
+			return;
+		Set<String> types = INSTANCE.recording.get();
+		if (types != null)
+			types.add(normalize(qualifiedName));
+	}
+
+	/**
+	 * @return The types the file depended on when it was validated last time.
+	 */
+	public Set<String> getDependencies(IFile file)
+	{
+		Set<String> types = dependencies.get(file);
+		return types == null ? Collections.<String> emptySet() : Collections
+			.unmodifiableSet(types);
+	}
+
+	/**
+	 * @return Mapper files that depend on the type or its nested types.
+	 */
+	public Set<IFile> getDependents(String qualifiedName)
+	{
+		Set<IFile> result = new HashSet<IFile>();
+		String name = normalize(qualifiedName);
+		Set<IFile> files = dependents.get(name);
+		if (files != null)
+			result.addAll(files);
+		String innerClassPrefix = name + ".";
+		for (Set<IFile> innerFiles : dependents.subMap(innerClassPrefix,
+			innerClassPrefix + Character.MAX_VALUE).values())
+		{
+			result.addAll(innerFiles);
+		}
+		return result;
+	}
+
+	/**
+	 * @return Recorded types whose names start with the prefix.
+	 */
+	public Set<String> getTypes(String prefix)
+	{
+		return new HashSet<String>(dependents.subMap(prefix, prefix + Character.MAX_VALUE)
+			.keySet());
+	}
+
+	public Set<IFile> getDependents(Collection<String> qualifiedNames)
+	{
+		Set<IFile> result = new HashSet<IFile>();
+		for (String qualifiedName : qualifiedNames)
+		{
+			result.addAll(getDependents(qualifiedName));
+		}
+		return result;
+	}
+
+	public void remove(IFile file)
+	{
+		removeDependencies(file);
+	}
+
+	public void remove(IProject project)
+	{
+		for (IFile file : dependencies.keySet())
+		{
+			if (project.equals(file.getProject()))
+				removeDependencies(file);
+		}
+	}
+
+	public void clear()
+	{
+		dependencies.clear();
+		dependents.clear();
+	}
+
+	private void removeDependencies(IFile file)
+	{
+		Set<String> types = dependencies.remove(file);
+		if (types == null)
+			return;
+		for (String type : types)
+		{
+			Set<IFile> files = dependents.get(type);
+			if (files != null)
+				files.remove(file);
+		}
+	}
+
+	private static String normalize(String qualifiedName)
+	{
+		String name = NameUtil.stripTypeArguments(qualifiedName);
+		while (name.endsWith("[]"))
+			name = name.substring(0, name.length() - 2);
+		return MybatipseXmlUtil.normalizeTypeName(name.trim());
+	}
+
+	public static JavaDependencyIndex getInstance()
+	{
+		return INSTANCE;
+	}
+
+	private JavaDependencyIndex()
+	{
+		super();
+	}
+}
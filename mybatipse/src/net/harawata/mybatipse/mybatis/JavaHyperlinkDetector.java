@@ -11,11 +11,8 @@
 
 package net.harawata.mybatipse.mybatis;
 
-import javax.xml.xpath.XPathExpressionException;
-
 import net.harawata.mybatipse.Activator;
 import net.harawata.mybatipse.hyperlink.ToXmlHyperlink;
-import net.harawata.mybatipse.util.XpathUtil;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.Status;
@@ -26,13 +23,12 @@ import org.eclipse.jdt.core.ITypeRoot;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextViewer;
-import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.hyperlink.AbstractHyperlinkDetector;
 import org.eclipse.jface.text.hyperlink.IHyperlink;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.texteditor.ITextEditor;
 import org.eclipse.wst.xml.core.internal.provisional.document.IDOMDocument;
-import org.eclipse.wst.xml.core.internal.provisional.document.IDOMNode;
+import org.w3c.dom.Element;
 
 /**
  * @author Iwao AVE!
@@ -60,11 +56,10 @@ public class JavaHyperlinkDetector extends AbstractHyperlinkDetector
 				switch (srcElement.getElementType())
 				{
 					case IJavaElement.METHOD:
-						links = getLinks(typeRoot, null, "//*[@id='" + srcElement.getElementName() + "']",
-							region);
+						links = getLinks(typeRoot, null, srcElement.getElementName(), region);
 						break;
 					case IJavaElement.TYPE:
-						links = getLinks(typeRoot, null, "//mapper", region);
+						links = getLinks(typeRoot, null, null, region);
 						break;
 					default:
 						break;
@@ -78,7 +73,11 @@ public class JavaHyperlinkDetector extends AbstractHyperlinkDetector
 		return links;
 	}
 
-	private IHyperlink[] getLinks(ITypeRoot typeRoot, IType triggerType, String expression,
+	/**
+	 * @param elementId The id of the target element or <code>null</code> to link to the
+	 *          &lt;mapper /&gt; element.
+	 */
+	private IHyperlink[] getLinks(ITypeRoot typeRoot, IType triggerType, String elementId,
 		IRegion srcRegion) throws JavaModelException
 	{
 		IType primaryType = typeRoot.findPrimaryType();
@@ -94,22 +93,16 @@ public class JavaHyperlinkDetector extends AbstractHyperlinkDetector
 					IDOMDocument mapperDocument = MybatipseXmlUtil.getMapperDocument(mapperFile);
 					if (mapperDocument != null)
 					{
-						try
-						{
-							IDOMNode domNode = (IDOMNode)XpathUtil.xpathNode(mapperDocument, expression);
-							if (domNode != null)
-							{
-								Region destRegion = new Region(domNode.getStartOffset(), domNode.getEndOffset()
-									- domNode.getStartOffset());
-								String label = "Open <" + domNode.getNodeName() + "/> in XML mapper.";
-								return new IHyperlink[]{
-									new ToXmlHyperlink(mapperFile, srcRegion, label, destRegion)
-								};
-							}
-						}
-						catch (XPathExpressionException e)
+						MapperDocumentIndex index = MapperDocumentIndex.get(mapperDocument);
+						Element element = elementId == null ? index.getMapperElement()
+							: index.getElementById(elementId);
+						if (element != null)
 						{
-							Activator.log(Status.ERROR, e.getMessage(), e);
+							IRegion destRegion = MapperDocumentIndex.getRegion(element);
+							String label = "Open <" + element.getNodeName() + "/> in XML mapper.";
+							return new IHyperlink[]{
+								new ToXmlHyperlink(mapperFile, srcRegion, label, destRegion)
+							};
 						}
 					}
 				}
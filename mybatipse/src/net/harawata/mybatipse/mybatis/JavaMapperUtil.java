@@ -11,13 +11,16 @@
 
 package net.harawata.mybatipse.mybatis;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import net.harawata.mybatipse.Activator;
 
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jdt.core.IAnnotation;
 import org.eclipse.jdt.core.ICompilationUnit;
@@ -58,32 +61,53 @@ public class JavaMapperUtil
 
 	public static void findMapperMethod(List<MapperMethodInfo> methodInfos, IJavaProject project,
 		String mapperFqn, String matchString, boolean exactMatch, boolean excludeAnnotated)
+	{
+		JavaDependencyIndex.record(mapperFqn);
+		MapperMethodTable table = MapperMethodCache.getInstance().get(project, mapperFqn);
+		if (table == null)
+			return;
+		for (MapperMethodEntry entry : table.getEntries())
+		{
+			if (excludeAnnotated && entry.isAnnotated())
+				continue;
+			if (matches(entry.getMethodInfo().getMethodName(), matchString, exactMatch))
+				methodInfos.add(entry.getMethodInfo());
+		}
+		if (table.isBinary() || !exactMatch || methodInfos.isEmpty())
+		{
+			for (String superInterface : table.getSuperInterfaces())
+			{
+				findMapperMethod(methodInfos, project, superInterface, matchString, exactMatch,
+					excludeAnnotated);
+			}
+		}
+	}
+
+	/**
+	 * Builds the method table of the mapper interface.
+	 *
+	 * @return The table or <code>null</code> if the type is not found or not an interface.
+	 */
+	static MapperMethodTable createMethodTable(IJavaProject project, String mapperFqn)
 	{
 		try
 		{
 			IType mapperType = project.findType(mapperFqn);
 			if (mapperType == null || !mapperType.isInterface())
-				return;
+				return null;
 			if (mapperType.isBinary())
-			{
-				findMapperMethodBinary(methodInfos, project, matchString, exactMatch, excludeAnnotated,
-					mapperType);
-			}
+				return createMethodTableBinary(mapperType);
 			else
-			{
-				findMapperMethodSource(methodInfos, project, mapperFqn, matchString, exactMatch,
-					excludeAnnotated, mapperType);
-			}
+				return createMethodTableSource(mapperFqn, mapperType);
 		}
 		catch (JavaModelException e)
 		{
 			Activator.log(Status.ERROR, "Failed to find type " + mapperFqn, e);
 		}
+		return null;
 	}
 
-	private static void findMapperMethodSource(List<MapperMethodInfo> methodInfos,
-		IJavaProject project, String mapperFqn, String matchString, boolean exactMatch,
-		boolean excludeAnnotated, IType mapperType)
+	private static MapperMethodTable createMethodTableSource(String mapperFqn, IType mapperType)
 	{
 		ICompilationUnit compilationUnit = (ICompilationUnit)mapperType.getAncestor(IJavaElement.COMPILATION_UNIT);
 		ASTParser parser = ASTParser.newParser(AST.JLS4);
@@ -92,59 +116,59 @@ public class JavaMapperUtil
 		parser.setResolveBindings(true);
 		// parser.setIgnoreMethodBodies(true);
 		CompilationUnit astUnit = (CompilationUnit)parser.createAST(null);
-		astUnit.accept(new JavaMapperVisitor(methodInfos, project, mapperFqn, matchString,
-			exactMatch, excludeAnnotated));
+		return createMethodTable(mapperFqn, compilationUnit, astUnit);
 	}
 
-	private static void findMapperMethodBinary(List<MapperMethodInfo> methodInfos,
-		IJavaProject project, String matchString, boolean exactMatch, boolean excludeAnnotated,
-		IType mapperType) throws JavaModelException
+	/**
+	 * Builds the method table of the mapper interface from an AST created with bindings.
+	 */
+	static MapperMethodTable createMethodTable(String mapperFqn,
+		ICompilationUnit compilationUnit, CompilationUnit astUnit)
 	{
+		JavaMapperVisitor visitor = new JavaMapperVisitor(mapperFqn);
+		astUnit.accept(visitor);
+		return new MapperMethodTable(compilationUnit.getPath(), visitor.entries,
+			visitor.superInterfaces);
+	}
+
+	private static MapperMethodTable createMethodTableBinary(IType mapperType)
+		throws JavaModelException
+	{
+		List<MapperMethodEntry> entries = new ArrayList<MapperMethodEntry>();
 		for (IMethod method : mapperType.getMethods())
 		{
 			if (hasStatementAnnotation(method))
 				continue;
 			String methodName = method.getElementName();
-			if (matches(methodName, matchString, exactMatch))
+			Map<String, String> paramMap = new HashMap<String, String>();
+			ILocalVariable[] parameters = method.getParameters();
+			for (int i = 0; i < parameters.length; i++)
 			{
-				Map<String, String> paramMap = new HashMap<String, String>();
-				MapperMethodInfo methodInfo = new MapperMethodInfo(methodName, paramMap);
-				methodInfos.add(methodInfo);
-
-				if (matchString.length() == 0
-					|| CharOperation.camelCaseMatch(matchString.toCharArray(), methodName.toCharArray()))
+				String paramFqn = parameters[i].getElementName();
+				for (IAnnotation annotation : parameters[i].getAnnotations())
 				{
-					ILocalVariable[] parameters = method.getParameters();
-					for (int i = 0; i < parameters.length; i++)
+					if (ANNOTATION_PARAM.equals(annotation.getElementName()))
 					{
-						String paramFqn = parameters[i].getElementName();
-						for (IAnnotation annotation : parameters[i].getAnnotations())
+						IMemberValuePair[] valuePairs = annotation.getMemberValuePairs();
+						if (valuePairs.length == 1)
 						{
-							if (ANNOTATION_PARAM.equals(annotation.getElementName()))
-							{
-								IMemberValuePair[] valuePairs = annotation.getMemberValuePairs();
-								if (valuePairs.length == 1)
-								{
-									IMemberValuePair valuePair = valuePairs[0];
-									String paramValue = (String)valuePair.getValue();
-									paramMap.put(paramValue, paramFqn);
-								}
-							}
+							IMemberValuePair valuePair = valuePairs[0];
+							String paramValue = (String)valuePair.getValue();
+							paramMap.put(paramValue, paramFqn);
 						}
-						paramMap.put("param" + (i + 1), paramFqn); //$NON-NLS-1$
 					}
 				}
+				paramMap.put("param" + (i + 1), paramFqn); //$NON-NLS-1$
 			}
+			entries.add(new MapperMethodEntry(methodName, paramMap, false));
 		}
-		String[] superInterfaces = mapperType.getSuperInterfaceNames();
-		for (String superInterface : superInterfaces)
+		List<String> superInterfaces = new ArrayList<String>();
+		for (String superInterface : mapperType.getSuperInterfaceNames())
 		{
 			if (!Object.class.getName().equals(superInterface))
-			{
-				findMapperMethod(methodInfos, project, superInterface, matchString, exactMatch,
-					excludeAnnotated);
-			}
+				superInterfaces.add(superInterface);
 		}
+		return new MapperMethodTable(null, entries, superInterfaces);
 	}
 
 	private static boolean matches(String methodName, String matchString, boolean exactMatch)
@@ -166,20 +190,17 @@ public class JavaMapperUtil
 		return false;
 	}
 
-	public static class JavaMapperVisitor extends ASTVisitor
+	/**
+	 * Collects all the methods and super interfaces of the mapper type from a single AST.
+	 */
+	private static class JavaMapperVisitor extends ASTVisitor
 	{
-		private List<MapperMethodInfo> methodInfos;
+		private final List<MapperMethodEntry> entries = new ArrayList<MapperMethodEntry>();
 
-		private IJavaProject project;
+		private final List<String> superInterfaces = new ArrayList<String>();
 
 		private String mapeprFqn;
 
-		private String matchString;
-
-		private boolean exactMatch;
-
-		private boolean excludeAnnotated;
-
 		private int nestLevel;
 
 		@Override
@@ -214,23 +235,20 @@ public class JavaMapperUtil
 			IMethodBinding method = node.resolveBinding();
 			if (method != null)
 			{
-				if (excludeAnnotated)
+				boolean annotated = false;
+				IAnnotationBinding[] methodAnnotations = method.getAnnotations();
+				for (IAnnotationBinding annotation : methodAnnotations)
 				{
-					IAnnotationBinding[] methodAnnotations = method.getAnnotations();
-					for (IAnnotationBinding annotation : methodAnnotations)
+					if (statementAnnotations.contains(annotation.getName()))
 					{
-						if (statementAnnotations.contains(annotation.getName()))
-							return false;
+						annotated = true;
+						break;
 					}
 				}
 				String methodName = node.getName().toString();
-				if (matches(methodName, matchString, exactMatch))
-				{
-					Map<String, String> paramMap = new HashMap<String, String>();
-					MapperMethodInfo methodInfo = new MapperMethodInfo(methodName, paramMap);
-					methodInfos.add(methodInfo);
-					collectMethodParams(node, paramMap);
-				}
+				Map<String, String> paramMap = new HashMap<String, String>();
+				collectMethodParams(node, paramMap);
+				entries.add(new MapperMethodEntry(methodName, paramMap, annotated));
 			}
 			return false;
 		}
@@ -265,7 +283,7 @@ public class JavaMapperUtil
 
 		public void endVisit(TypeDeclaration node)
 		{
-			if (nestLevel == 1 && (!exactMatch || methodInfos.isEmpty()))
+			if (nestLevel == 1)
 			{
 				@SuppressWarnings("unchecked")
 				List<Type> superInterfaceTypes = node.superInterfaceTypes();
@@ -283,8 +301,7 @@ public class JavaMapperUtil
 								int paramIdx = superInterfaceFqn.indexOf('<');
 								superInterfaceFqn = superInterfaceFqn.substring(0, paramIdx);
 							}
-							findMapperMethod(methodInfos, project, superInterfaceFqn, matchString,
-								exactMatch, excludeAnnotated);
+							superInterfaces.add(superInterfaceFqn);
 						}
 					}
 				}
@@ -292,20 +309,84 @@ public class JavaMapperUtil
 			nestLevel--;
 		}
 
-		private JavaMapperVisitor(
-			List<MapperMethodInfo> methodInfos,
-			IJavaProject project,
-			String mapperFqn,
-			String matchString,
-			boolean exactMatch,
-			boolean excludeAnnotated)
+		private JavaMapperVisitor(String mapperFqn)
 		{
-			this.methodInfos = methodInfos;
-			this.project = project;
 			this.mapeprFqn = mapperFqn;
-			this.matchString = matchString;
-			this.exactMatch = exactMatch;
-			this.excludeAnnotated = excludeAnnotated;
+		}
+	}
+
+	/**
+	 * All the methods declared in a mapper interface. Methods of the super interfaces are in
+	 * their own tables.
+	 */
+	public static class MapperMethodTable
+	{
+		private final IPath path;
+
+		private final List<MapperMethodEntry> entries;
+
+		private final List<String> superInterfaces;
+
+		/**
+		 * @return The path of the compilation unit or <code>null</code> for binary types.
+		 */
+		public IPath getPath()
+		{
+			return path;
+		}
+
+		public boolean isBinary()
+		{
+			return path == null;
+		}
+
+		public List<MapperMethodEntry> getEntries()
+		{
+			return entries;
+		}
+
+		public List<String> getSuperInterfaces()
+		{
+			return superInterfaces;
+		}
+
+		private MapperMethodTable(
+			IPath path,
+			List<MapperMethodEntry> entries,
+			List<String> superInterfaces)
+		{
+			super();
+			this.path = path;
+			this.entries = Collections.unmodifiableList(entries);
+			this.superInterfaces = Collections.unmodifiableList(superInterfaces);
+		}
+	}
+
+	public static class MapperMethodEntry
+	{
+		private final MapperMethodInfo methodInfo;
+
+		private final boolean annotated;
+
+		public MapperMethodInfo getMethodInfo()
+		{
+			return methodInfo;
+		}
+
+		/**
+		 * @return <code>true</code> if the method has a statement annotation like
+		 *         <code>@Select</code>.
+		 */
+		public boolean isAnnotated()
+		{
+			return annotated;
+		}
+
+		private MapperMethodEntry(String methodName, Map<String, String> params, boolean annotated)
+		{
+			super();
+			this.methodInfo = new MapperMethodInfo(methodName, Collections.unmodifiableMap(params));
+			this.annotated = annotated;
 		}
 	}
 
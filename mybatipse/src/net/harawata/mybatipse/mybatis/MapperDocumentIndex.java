@@ -0,0 +1,159 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.wst.xml.core.internal.provisional.document.IDOMDocument;
+import org.eclipse.wst.xml.core.internal.provisional.document.IDOMNode;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Elements with <code>id</code> attribute in a mapper document, built in one pass.<br>
+ * The index is attached to the document and rebuilt when the modification stamp of the
+ * underlying structured document changes.
+ *
+ * @author Iwao AVE!
+ */
+@SuppressWarnings("restriction")
+public class MapperDocumentIndex
+{
+	private static final String USER_DATA_KEY = MapperDocumentIndex.class.getName();
+
+	private final long modificationStamp;
+
+	private final Element mapperElement;
+
+	private final String namespace;
+
+	private final Map<String, Map<String, Element>> elementsByTag = new HashMap<String, Map<String, Element>>();
+
+	private final Map<String, Element> elementsById = new HashMap<String, Element>();
+
+	public static MapperDocumentIndex get(Document document)
+	{
+		if (!(document instanceof IDOMDocument))
+			return new MapperDocumentIndex(document, -1L);
+
+		IDOMDocument domDoc = (IDOMDocument)document;
+		long stamp = domDoc.getStructuredDocument().getModificationStamp();
+		Object cached = domDoc.getUserData(USER_DATA_KEY);
+		if (cached instanceof MapperDocumentIndex
+			&& ((MapperDocumentIndex)cached).modificationStamp == stamp)
+		{
+			return (MapperDocumentIndex)cached;
+		}
+		MapperDocumentIndex index = new MapperDocumentIndex(domDoc, stamp);
+		domDoc.setUserData(USER_DATA_KEY, index, null);
+		return index;
+	}
+
+	/**
+	 * @return The first element with the tag name and id in document order or
+	 *         <code>null</code>.
+	 */
+	public Element getElement(String tagName, String id)
+	{
+		Map<String, Element> elements = elementsByTag.get(tagName);
+		return elements == null ? null : elements.get(id);
+	}
+
+	public boolean contains(String tagName, String id)
+	{
+		return getElement(tagName, id) != null;
+	}
+
+	/**
+	 * @return The first element with the id regardless of its tag name or <code>null</code>.
+	 */
+	public Element getElementById(String id)
+	{
+		return elementsById.get(id);
+	}
+
+	/**
+	 * @return Ids of the elements with the tag name in document order.
+	 */
+	public Collection<String> getIds(String tagName)
+	{
+		Map<String, Element> elements = elementsByTag.get(tagName);
+		return elements == null ? Collections.<String> emptySet() : Collections
+			.unmodifiableCollection(elements.keySet());
+	}
+
+	public Element getMapperElement()
+	{
+		return mapperElement;
+	}
+
+	public String getNamespace()
+	{
+		return namespace;
+	}
+
+	/**
+	 * @return Offset range of the element or <code>null</code> if the element does not belong
+	 *         to a structured document.
+	 */
+	public static IRegion getRegion(Node node)
+	{
+		if (!(node instanceof IDOMNode))
+			return null;
+		IDOMNode domNode = (IDOMNode)node;
+		return new Region(domNode.getStartOffset(), domNode.getEndOffset()
+			- domNode.getStartOffset());
+	}
+
+	private void collect(Element element)
+	{
+		String id = element.getAttribute("id");
+		if (id != null && id.length() > 0)
+		{
+			String tagName = element.getNodeName();
+			Map<String, Element> elements = elementsByTag.get(tagName);
+			if (elements == null)
+			{
+				elements = new LinkedHashMap<String, Element>();
+				elementsByTag.put(tagName, elements);
+			}
+			// Keep the first one as XPath does.
+			if (!elements.containsKey(id))
+				elements.put(id, element);
+			if (!elementsById.containsKey(id))
+				elementsById.put(id, element);
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			if (child.getNodeType() == Node.ELEMENT_NODE)
+				collect((Element)child);
+		}
+	}
+
+	private MapperDocumentIndex(Document document, long modificationStamp)
+	{
+		super();
+		this.modificationStamp = modificationStamp;
+		Element root = document == null ? null : document.getDocumentElement();
+		if (root != null)
+			collect(root);
+		this.mapperElement = root != null && "mapper".equals(root.getNodeName()) ? root : null;
+		this.namespace = mapperElement == null ? null : mapperElement.getAttribute("namespace");
+	}
+}
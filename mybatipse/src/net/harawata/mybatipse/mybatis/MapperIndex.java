@@ -0,0 +1,449 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import static net.harawata.mybatipse.MybatipseConstants.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.content.IContentDescription;
+import org.eclipse.core.runtime.content.IContentType;
+
+/**
+ * Persistent index of MyBatis related XML files in the workspace.<br>
+ * Each entry is keyed by the workspace path of the file and is valid only while the
+ * modification stamp of the file stays the same, so files that have not changed since the
+ * last session need not be sniffed or parsed again.
+ *
+ * @author Iwao AVE!
+ */
+public class MapperIndex
+{
+	private static final MapperIndex INSTANCE = new MapperIndex();
+
+	private static final StateFile STATE_FILE = new StateFile("mapperIndex.dat", 2,
+		"mapper index");
+
+	/**
+	 * Elements whose ids are recorded for mapper files.
+	 */
+	static final List<String> INDEXED_TAGS = Arrays.asList("select", "insert", "update",
+		"delete", "sql", "resultMap");
+
+	public enum Kind
+	{
+		NONE, MAPPER, CONFIG, SPRING_CONFIG;
+
+		public static Kind of(IContentType contentType)
+		{
+			if (contentType == null)
+				return NONE;
+			else if (contentType.isKindOf(mapperContentType))
+				return MAPPER;
+			else if (contentType.isKindOf(configContentType))
+				return CONFIG;
+			else if (contentType.isKindOf(springConfigContentType))
+				return SPRING_CONFIG;
+			return NONE;
+		}
+
+		public IContentType getContentType()
+		{
+			switch (this)
+			{
+				case MAPPER:
+					return mapperContentType;
+				case CONFIG:
+					return configContentType;
+				case SPRING_CONFIG:
+					return springConfigContentType;
+				default:
+					return null;
+			}
+		}
+	}
+
+	private final Map<String, IndexEntry> entries = new ConcurrentHashMap<String, IndexEntry>();
+
+	private volatile boolean dirty;
+
+	/**
+	 * @return The entry for the file or <code>null</code> if there is no entry or the file has
+	 *         been modified since the entry was recorded.
+	 */
+	public IndexEntry get(IFile file)
+	{
+		IndexEntry entry = entries.get(key(file));
+		if (entry == null || entry.getModificationStamp() != file.getModificationStamp())
+			return null;
+		return entry;
+	}
+
+	/**
+	 * Classifies the file by its content type.<br>
+	 * The content type describers read the head of the file, so the result is recorded and
+	 * reused until the file is modified.
+	 */
+	public Kind getKind(IFile file) throws CoreException
+	{
+		IndexEntry entry = get(file);
+		if (entry != null)
+			return entry.getKind();
+		IContentDescription contentDesc = file.getContentDescription();
+		Kind kind = Kind.of(contentDesc == null ? null : contentDesc.getContentType());
+		putKind(file, kind);
+		return kind;
+	}
+
+	public void putKind(IFile file, Kind kind)
+	{
+		IndexEntry current = get(file);
+		if (current != null && current.getKind() == kind)
+			return;
+		put(new IndexEntry(key(file), file.getModificationStamp(), kind, null, null, null, null,
+			null));
+	}
+
+	public void putMapper(IFile file, String namespace, MapperDocumentIndex documentIndex)
+	{
+		Map<String, Set<String>> ids = new HashMap<String, Set<String>>();
+		for (String tag : INDEXED_TAGS)
+		{
+			Collection<String> tagIds = documentIndex.getIds(tag);
+			if (!tagIds.isEmpty())
+				ids.put(tag, new HashSet<String>(tagIds));
+		}
+		putMapper(file, namespace, ids);
+	}
+
+	/**
+	 * @param ids tag name -> ids of the elements in {@link #INDEXED_TAGS}
+	 */
+	public void putMapper(IFile file, String namespace, Map<String, Set<String>> ids)
+	{
+		put(new IndexEntry(key(file), file.getModificationStamp(), Kind.MAPPER, namespace, ids,
+			null, null, null));
+	}
+
+	/**
+	 * @param typeAliases Declared type aliases in the same format as the custom type alias
+	 *          preference i.e. <code>qualifiedName</code> or <code>qualifiedName:alias</code>.
+	 */
+	public void putConfig(IFile file, Kind kind, Collection<String> aliasPackages,
+		Collection<String> typeAliases, Collection<String> superTypes)
+	{
+		put(new IndexEntry(key(file), file.getModificationStamp(), kind, null, null,
+			new ArrayList<String>(aliasPackages), new ArrayList<String>(typeAliases),
+			new ArrayList<String>(superTypes)));
+	}
+
+	public void remove(IFile file)
+	{
+		if (entries.remove(key(file)) != null)
+			dirty = true;
+	}
+
+	public void remove(IProject project)
+	{
+		String prefix = project.getFullPath().addTrailingSeparator().toString();
+		for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();)
+		{
+			if (it.next().startsWith(prefix))
+			{
+				it.remove();
+				dirty = true;
+			}
+		}
+	}
+
+	public void clear()
+	{
+		entries.clear();
+		dirty = true;
+	}
+
+	private void put(IndexEntry entry)
+	{
+		entries.put(entry.getPath(), entry);
+		dirty = true;
+	}
+
+	private String key(IFile file)
+	{
+		return file.getFullPath().toString();
+	}
+
+	public void load(IPath stateLocation)
+	{
+		STATE_FILE.load(stateLocation, new StateFile.Reader()
+		{
+			@Override
+			public void read(DataInputStream in) throws IOException
+			{
+				int count = StateFile.readSize(in);
+				for (int i = 0; i < count; i++)
+				{
+					IndexEntry entry = IndexEntry.read(in);
+					entries.put(entry.getPath(), entry);
+				}
+				dirty = false;
+			}
+
+			@Override
+			public void reset()
+			{
+				entries.clear();
+			}
+		});
+	}
+
+	public void save(IPath stateLocation)
+	{
+		if (!dirty)
+			return;
+		boolean saved = STATE_FILE.save(stateLocation, new StateFile.Writer()
+		{
+			@Override
+			public void write(DataOutputStream out) throws IOException
+			{
+				List<IndexEntry> snapshot = new ArrayList<IndexEntry>(entries.values());
+				out.writeInt(snapshot.size());
+				for (IndexEntry entry : snapshot)
+				{
+					entry.write(out);
+				}
+			}
+		});
+		if (saved)
+			dirty = false;
+	}
+
+	public static MapperIndex getInstance()
+	{
+		return INSTANCE;
+	}
+
+	private MapperIndex()
+	{
+		super();
+	}
+
+	public static class IndexEntry
+	{
+		private final String path;
+
+		private final long modificationStamp;
+
+		private final Kind kind;
+
+		private final String namespace;
+
+		private final Map<String, Set<String>> ids;
+
+		private final List<String> aliasPackages;
+
+		private final List<String> typeAliases;
+
+		private final List<String> superTypes;
+
+		public String getPath()
+		{
+			return path;
+		}
+
+		public long getModificationStamp()
+		{
+			return modificationStamp;
+		}
+
+		public Kind getKind()
+		{
+			return kind;
+		}
+
+		public String getNamespace()
+		{
+			return namespace;
+		}
+
+		/**
+		 * @return <code>true</code> if the ids of the mapper has been recorded.
+		 */
+		public boolean hasIds()
+		{
+			return ids != null;
+		}
+
+		public boolean containsId(String tagName, String id)
+		{
+			Set<String> tagIds = ids == null ? null : ids.get(tagName);
+			return tagIds != null && tagIds.contains(id);
+		}
+
+		public Set<String> getIds(String tagName)
+		{
+			Set<String> tagIds = ids == null ? null : ids.get(tagName);
+			return tagIds == null ? Collections.<String> emptySet() : Collections
+				.unmodifiableSet(tagIds);
+		}
+
+		/**
+		 * @return <code>true</code> if the type alias related contents of the config file has
+		 *         been recorded.
+		 */
+		public boolean hasAliasInfo()
+		{
+			return aliasPackages != null;
+		}
+
+		public List<String> getAliasPackages()
+		{
+			return aliasPackages;
+		}
+
+		public List<String> getTypeAliases()
+		{
+			return typeAliases;
+		}
+
+		public List<String> getSuperTypes()
+		{
+			return superTypes;
+		}
+
+		private void write(DataOutputStream out) throws IOException
+		{
+			StateFile.writeString(out, path);
+			out.writeLong(modificationStamp);
+			out.writeByte(kind.ordinal());
+			StateFile.writeString(out, namespace);
+			out.writeBoolean(ids != null);
+			if (ids != null)
+			{
+				out.writeInt(ids.size());
+				for (Entry<String, Set<String>> entry : ids.entrySet())
+				{
+					StateFile.writeString(out, entry.getKey());
+					writeStrings(out, entry.getValue());
+				}
+			}
+			out.writeBoolean(aliasPackages != null);
+			if (aliasPackages != null)
+			{
+				writeStrings(out, aliasPackages);
+				writeStrings(out, typeAliases);
+				writeStrings(out, superTypes);
+			}
+		}
+
+		private static IndexEntry read(DataInputStream in) throws IOException
+		{
+			String path = readNonNull(in);
+			long modificationStamp = in.readLong();
+			int ordinal = in.readByte();
+			if (ordinal < 0 || ordinal >= Kind.values().length)
+				throw new IOException("Invalid kind " + ordinal + " for " + path);
+			Kind kind = Kind.values()[ordinal];
+			String namespace = StateFile.readString(in);
+			Map<String, Set<String>> ids = null;
+			if (in.readBoolean())
+			{
+				int size = StateFile.readSize(in);
+				ids = new HashMap<String, Set<String>>();
+				for (int i = 0; i < size; i++)
+				{
+					String tag = readNonNull(in);
+					ids.put(tag, new HashSet<String>(readStrings(in)));
+				}
+			}
+			List<String> aliasPackages = null;
+			List<String> typeAliases = null;
+			List<String> superTypes = null;
+			if (in.readBoolean())
+			{
+				aliasPackages = readStrings(in);
+				typeAliases = readStrings(in);
+				superTypes = readStrings(in);
+			}
+			return new IndexEntry(path, modificationStamp, kind, namespace, ids, aliasPackages,
+				typeAliases, superTypes);
+		}
+
+		private static String readNonNull(DataInputStream in) throws IOException
+		{
+			String value = StateFile.readString(in);
+			if (value == null)
+				throw new IOException("Unexpected null value");
+			return value;
+		}
+
+		private static void writeStrings(DataOutputStream out, Collection<String> values)
+			throws IOException
+		{
+			out.writeInt(values.size());
+			for (String value : values)
+			{
+				StateFile.writeString(out, value);
+			}
+		}
+
+		private static List<String> readStrings(DataInputStream in) throws IOException
+		{
+			int size = StateFile.readSize(in);
+			List<String> values = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++)
+			{
+				values.add(readNonNull(in));
+			}
+			return values;
+		}
+
+		private IndexEntry(
+			String path,
+			long modificationStamp,
+			Kind kind,
+			String namespace,
+			Map<String, Set<String>> ids,
+			List<String> aliasPackages,
+			List<String> typeAliases,
+			List<String> superTypes)
+		{
+			super();
+			this.path = path;
+			this.modificationStamp = modificationStamp;
+			this.kind = kind;
+			this.namespace = namespace;
+			this.ids = ids;
+			this.aliasPackages = aliasPackages;
+			this.typeAliases = typeAliases;
+			this.superTypes = superTypes;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.harawata.mybatipse.mybatis.JavaMapperUtil.MapperMethodTable;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+/**
+ * Method tables of mapper interfaces per project, keyed by the fully qualified name.<br>
+ * A table is built from a single AST of the mapper and removed when its compilation unit or
+ * the classpath of the project changes.
+ *
+ * @author Iwao AVE!
+ */
+public class MapperMethodCache
+{
+	private static final MapperMethodCache INSTANCE = new MapperMethodCache();
+
+	private final Map<String, Map<String, MapperMethodTable>> projectCache = new ConcurrentHashMap<String, Map<String, MapperMethodTable>>();
+
+	/**
+	 * compilation unit path -> projectName/mapperFqn of the tables built from it
+	 */
+	private final ConcurrentMap<IPath, Set<String>> tablesByPath = new ConcurrentHashMap<IPath, Set<String>>();
+
+	/**
+	 * @return The method table or <code>null</code> if the mapper interface is not found.
+	 */
+	public MapperMethodTable get(IJavaProject project, String mapperFqn)
+	{
+		Map<String, MapperMethodTable> tables = getTables(project);
+		MapperMethodTable table = tables.get(mapperFqn);
+		if (table == null)
+		{
+			table = JavaMapperUtil.createMethodTable(project, mapperFqn);
+			if (table != null)
+				putTable(project.getElementName(), tables, mapperFqn, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Caches the table of a source mapper from an AST that has been created with bindings, e.g.
+	 * in a batch of {@link org.eclipse.jdt.core.dom.ASTParser#createASTs}. Does nothing if the table is cached.
+	 */
+	public void put(IJavaProject project, String mapperFqn, ICompilationUnit compilationUnit,
+		CompilationUnit astUnit)
+	{
+		Map<String, MapperMethodTable> tables = getTables(project);
+		if (!tables.containsKey(mapperFqn))
+		{
+			MapperMethodTable table = JavaMapperUtil.createMethodTable(mapperFqn,
+				compilationUnit, astUnit);
+			if (table != null)
+				putTable(project.getElementName(), tables, mapperFqn, table);
+		}
+	}
+
+	/**
+	 * Removes the tables built from the compilation unit in all projects.
+	 */
+	public void remove(IPath compilationUnitPath)
+	{
+		Set<String> keys = tablesByPath.remove(compilationUnitPath);
+		if (keys == null)
+			return;
+		for (String key : keys)
+		{
+			int separator = key.indexOf('/');
+			Map<String, MapperMethodTable> tables = projectCache.get(key.substring(0, separator));
+			if (tables == null)
+				continue;
+			String mapperFqn = key.substring(separator + 1);
+			MapperMethodTable table = tables.get(mapperFqn);
+			if (table != null && compilationUnitPath.equals(table.getPath()))
+				tables.remove(mapperFqn);
+		}
+	}
+
+	private void putTable(String projectName, Map<String, MapperMethodTable> tables,
+		String mapperFqn, MapperMethodTable table)
+	{
+		tables.put(mapperFqn, table);
+		IPath path = table.getPath();
+		if (path == null)
+			return;
+		Set<String> keys = tablesByPath.get(path);
+		if (keys == null)
+		{
+			keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			Set<String> existing = tablesByPath.putIfAbsent(path, keys);
+			if (existing != null)
+				keys = existing;
+		}
+		keys.add(projectName + '/' + mapperFqn);
+	}
+
+	private Map<String, MapperMethodTable> getTables(IJavaProject project)
+	{
+		String projectName = project.getElementName();
+		Map<String, MapperMethodTable> tables = projectCache.get(projectName);
+		if (tables == null)
+		{
+			tables = new ConcurrentHashMap<String, MapperMethodTable>();
+			projectCache.put(projectName, tables);
+		}
+		return tables;
+	}
+
+	public void remove(String projectName)
+	{
+		projectCache.remove(projectName);
+		String prefix = projectName + '/';
+		for (Iterator<Set<String>> it = tablesByPath.values().iterator(); it.hasNext();)
+		{
+			Set<String> keys = it.next();
+			for (Iterator<String> keyIt = keys.iterator(); keyIt.hasNext();)
+			{
+				if (keyIt.next().startsWith(prefix))
+					keyIt.remove();
+			}
+			if (keys.isEmpty())
+				it.remove();
+		}
+	}
+
+	public void clear()
+	{
+		projectCache.clear();
+		tablesByPath.clear();
+	}
+
+	public static MapperMethodCache getInstance()
+	{
+		return INSTANCE;
+	}
+
+	private MapperMethodCache()
+	{
+		super();
+	}
+}
@@ -13,25 +13,29 @@ package net.harawata.mybatipse.mybatis;
 
 import static net.harawata.mybatipse.MybatipseConstants.*;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.harawata.mybatipse.Activator;
-import net.harawata.mybatipse.util.XpathUtil;
+import net.harawata.mybatipse.mybatis.MapperIndex.IndexEntry;
+import net.harawata.mybatipse.mybatis.MapperIndex.Kind;
+import net.harawata.mybatipse.mybatis.MapperStreamReader.MapperContents;
+import net.harawata.mybatipse.mybatis.XmlFileScanner.ScanResult;
+import net.harawata.mybatipse.util.SingleFlightLoader;
+import net.harawata.mybatipse.util.SingleFlightLoader.Loader;
 
-import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.IResourceProxy;
-import org.eclipse.core.resources.IResourceProxyVisitor;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.content.IContentDescription;
-import org.eclipse.core.runtime.content.IContentType;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.wst.sse.core.StructuredModelManager;
@@ -39,7 +43,6 @@ import org.eclipse.wst.sse.core.internal.provisional.IStructuredModel;
 import org.eclipse.wst.validation.internal.provisional.core.IReporter;
 import org.eclipse.wst.xml.core.internal.provisional.document.IDOMDocument;
 import org.eclipse.wst.xml.core.internal.provisional.document.IDOMModel;
-import org.w3c.dom.Node;
 
 /**
  * @author Iwao AVE!
@@ -49,134 +52,195 @@ public class MapperNamespaceCache
 {
 	private static final MapperNamespaceCache INSTANCE = new MapperNamespaceCache();
 
-	private IContentType mapperContentType = Platform.getContentTypeManager().getContentType(
-		CONTENT_TYPE_MAPPER);
+	private static boolean DEBUG = Activator.getDefault().isDebugging()
+		&& Boolean.parseBoolean(Platform.getDebugOption(DEBUG_MAPPER_DISCOVERY));
 
-	private final Map<String, Map<String, IFile>> cache = new ConcurrentHashMap<String, Map<String, IFile>>();
+	private final Map<String, MapperNamespaceMap> cache = new ConcurrentHashMap<String, MapperNamespaceMap>();
 
+	private final SingleFlightLoader<String, MapperNamespaceMap> loader = new SingleFlightLoader<String, MapperNamespaceMap>();
+
+	/**
+	 * @return The mapper file declaring the namespace. If multiple files declare it, the one
+	 *         with the smallest path.
+	 */
 	public IFile get(IJavaProject javaProject, String namespace, IReporter reporter)
 	{
-		Map<String, IFile> map = getCacheMap(javaProject, reporter);
-		return map.get(namespace);
+		return getCacheMap(javaProject, reporter).get(namespace);
+	}
+
+	/**
+	 * @return All the mapper files declaring the namespace.
+	 */
+	public Set<IFile> getFiles(IJavaProject javaProject, String namespace, IReporter reporter)
+	{
+		return getCacheMap(javaProject, reporter).getFiles(namespace);
+	}
+
+	public Set<String> getNamespaces(IJavaProject javaProject, IReporter reporter)
+	{
+		return getCacheMap(javaProject, reporter).namespaces();
 	}
 
 	public void clear()
 	{
+		loader.invalidateAll();
 		cache.clear();
 	}
 
 	public void remove(IProject project)
 	{
+		loader.invalidate(project.getName());
 		cache.remove(project.getName());
 	}
 
 	public void remove(String projectName, IFile file)
 	{
-		Map<String, IFile> map = cache.get(projectName);
+		MapperNamespaceMap map = cache.get(projectName);
 		if (map == null)
-			return;
-		Iterator<Entry<String, IFile>> iterator = map.entrySet().iterator();
-		while (iterator.hasNext())
 		{
-			Entry<String, IFile> entry = iterator.next();
-			if (file.equals(entry.getValue()))
-			{
-				iterator.remove();
-			}
+			// A running scan may have read the file already.
+			loader.invalidate(projectName);
+			return;
 		}
+		map.remove(file);
 	}
 
 	public void put(String projectName, IFile file)
 	{
-		remove(projectName, file);
-
-		Map<String, IFile> map = cache.get(projectName);
+		MapperNamespaceMap map = cache.get(projectName);
 		if (map == null)
+		{
+			// A running scan may have missed the file.
+			loader.invalidate(projectName);
 			return;
+		}
 
 		String namespace = extractNamespace(file);
-		if (namespace != null)
-		{
+		if (namespace == null)
+			map.remove(file);
+		else
 			map.put(namespace, file);
-		}
 	}
 
-	public Map<String, IFile> getCacheMap(IJavaProject javaProject, IReporter reporter)
+	private MapperNamespaceMap getCacheMap(final IJavaProject javaProject,
+		final IReporter reporter)
 	{
-		String projectName = javaProject.getElementName();
-		Map<String, IFile> map = cache.get(projectName);
-		if (map == null)
+		final String projectName = javaProject.getElementName();
+		return loader.get(projectName, new Loader<MapperNamespaceMap>()
 		{
-			map = new ConcurrentHashMap<String, IFile>();
-			cache.put(projectName, map);
-			collectMappers(javaProject, map, reporter);
-		}
-		return map;
+			@Override
+			public MapperNamespaceMap getCached()
+			{
+				return cache.get(projectName);
+			}
+
+			@Override
+			public MapperNamespaceMap load()
+			{
+				MapperNamespaceMap map = new MapperNamespaceMap();
+				collectMappers(javaProject, map, reporter);
+				return map;
+			}
+
+			@Override
+			public void publish(MapperNamespaceMap map)
+			{
+				cache.put(projectName, map);
+			}
+		});
 	}
 
-	private void collectMappers(IJavaProject project, final Map<String, IFile> map,
-		final IReporter reporter)
+	/**
+	 * Collects the mappers in the source folders of the project and the projects it requires.
+	 */
+	private void collectMappers(IJavaProject project, MapperNamespaceMap map,
+		IReporter reporter)
 	{
+		long start = DEBUG ? System.nanoTime() : 0L;
 		try
 		{
+			// project -> source folders
+			Map<IProject, List<IPath>> sourceFolders = new LinkedHashMap<IProject, List<IPath>>();
 			for (IPackageFragmentRoot root : project.getAllPackageFragmentRoots())
 			{
-				if (root.getKind() != IPackageFragmentRoot.K_SOURCE)
+				IResource resource = root.getResource();
+				if (root.getKind() != IPackageFragmentRoot.K_SOURCE || resource == null)
 				{
 					continue;
 				}
+				List<IPath> paths = sourceFolders.get(resource.getProject());
+				if (paths == null)
+				{
+					paths = new ArrayList<IPath>();
+					sourceFolders.put(resource.getProject(), paths);
+				}
+				paths.add(resource.getFullPath());
+			}
 
-				root.getResource().accept(new IResourceProxyVisitor()
+			for (Entry<IProject, List<IPath>> entry : sourceFolders.entrySet())
+			{
+				ScanResult result = XmlFileScanner.getInstance().scan(entry.getKey());
+				for (IFile file : result.getFiles(Kind.MAPPER))
 				{
-					@Override
-					public boolean visit(IResourceProxy proxy) throws CoreException
+					if (!isUnder(file, entry.getValue()))
+						continue;
+					IndexEntry indexEntry = MapperIndex.getInstance().get(file);
+					// Unchanged since it was indexed.
+					String namespace = indexEntry != null && indexEntry.hasIds() ? indexEntry
+						.getNamespace() : extractNamespace(file);
+					if (namespace != null)
 					{
-						if (!proxy.isDerived() && proxy.getType() == IResource.FILE
-							&& proxy.getName().endsWith(".xml"))
-						{
-							IFile file = (IFile)proxy.requestResource();
-							IContentDescription contentDesc = file.getContentDescription();
-							if (contentDesc != null)
-							{
-								IContentType contentType = contentDesc.getContentType();
-								if (contentType != null && contentType.isKindOf(mapperContentType))
-								{
-									String namespace = extractNamespace(file);
-									if (namespace != null)
-									{
-										map.put(namespace, file);
-									}
-									return false;
-								}
-							}
-						}
-						return true;
+						map.put(namespace, file);
 					}
-				}, IContainer.NONE);
+				}
 			}
 		}
 		catch (CoreException e)
 		{
 			Activator.log(Status.ERROR, "Searching MyBatis Mapper xml failed.", e);
 		}
+		if (DEBUG)
+			Activator.log(Status.INFO, "Found " + map.namespaces().size() + " namespaces in "
+				+ project.getElementName() + " in " + (System.nanoTime() - start) / 1000000L + "ms");
+	}
+
+	private boolean isUnder(IFile file, List<IPath> folders)
+	{
+		IPath path = file.getFullPath();
+		for (IPath folder : folders)
+		{
+			if (folder.isPrefixOf(path))
+				return true;
+		}
+		return false;
 	}
 
+	/**
+	 * Uses the structured model if the file is open in an editor. Otherwise the file is streamed
+	 * because building a model is much more expensive.
+	 */
 	private String extractNamespace(IFile file)
 	{
 		IStructuredModel model = null;
 		try
 		{
-			model = StructuredModelManager.getModelManager().getModelForRead(file);
-			IDOMModel domModel = (IDOMModel)model;
-			IDOMDocument domDoc = domModel.getDocument();
-
-			Node node = XpathUtil.xpathNode(domDoc, "//mapper/@namespace");
-			return node == null ? null : node.getNodeValue();
+			model = StructuredModelManager.getModelManager().getExistingModelForRead(file);
+			if (model instanceof IDOMModel)
+			{
+				IDOMDocument domDoc = ((IDOMModel)model).getDocument();
+				MapperDocumentIndex documentIndex = MapperDocumentIndex.get(domDoc);
+				String namespace = documentIndex.getNamespace();
+				if (namespace != null && namespace.length() == 0)
+					namespace = null;
+				MapperIndex.getInstance().putMapper(file, namespace, documentIndex);
+				return namespace;
+			}
 		}
 		catch (Exception e)
 		{
 			Activator.log(Status.ERROR, "Error occurred during parsing mapper:" + file.getFullPath(),
 				e);
+			return null;
 		}
 		finally
 		{
@@ -185,7 +249,14 @@ public class MapperNamespaceCache
 				model.releaseFromRead();
 			}
 		}
-		return null;
+
+		MapperContents contents = MapperStreamReader.read(file);
+		if (contents == null)
+			return null;
+		// Ids of a broken file are left for the validator to read from the model.
+		MapperIndex.getInstance().putMapper(file, contents.getNamespace(),
+			contents.isComplete() ? contents.getIds() : null);
+		return contents.getNamespace();
 	}
 
 	public static MapperNamespaceCache getInstance()
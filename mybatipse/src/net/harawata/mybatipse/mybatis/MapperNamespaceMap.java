@@ -0,0 +1,130 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IFile;
+
+/**
+ * Mapper files of a project by namespace and vice versa.<br>
+ * Files declaring the same namespace are all kept, sorted by path, so that lookups return the
+ * same file regardless of the order in which the files have been found.
+ *
+ * @author Iwao AVE!
+ */
+class MapperNamespaceMap
+{
+	private static final Comparator<IFile> PATH_ORDER = new Comparator<IFile>()
+	{
+		@Override
+		public int compare(IFile f1, IFile f2)
+		{
+			return f1.getFullPath().toString().compareTo(f2.getFullPath().toString());
+		}
+	};
+
+	/**
+	 * namespace -> files sorted by path (copy on write)
+	 */
+	private final Map<String, IFile[]> filesByNamespace = new ConcurrentHashMap<String, IFile[]>();
+
+	private final Map<IFile, String> namespaceByFile = new ConcurrentHashMap<IFile, String>();
+
+	/**
+	 * @return The file declaring the namespace or <code>null</code>. If there are duplicates,
+	 *         the one with the smallest path.
+	 */
+	public IFile get(String namespace)
+	{
+		IFile[] files = filesByNamespace.get(namespace);
+		return files == null ? null : files[0];
+	}
+
+	public Set<IFile> getFiles(String namespace)
+	{
+		IFile[] files = filesByNamespace.get(namespace);
+		return files == null ? Collections.<IFile> emptySet() : Collections
+			.unmodifiableSet(new LinkedHashSet<IFile>(Arrays.asList(files)));
+	}
+
+	public String getNamespace(IFile file)
+	{
+		return namespaceByFile.get(file);
+	}
+
+	public Set<String> namespaces()
+	{
+		return Collections.unmodifiableSet(filesByNamespace.keySet());
+	}
+
+	public synchronized void put(String namespace, IFile file)
+	{
+		String previous = namespaceByFile.put(file, namespace);
+		if (namespace.equals(previous))
+			return;
+		if (previous != null)
+			removeFile(previous, file);
+		IFile[] files = filesByNamespace.get(namespace);
+		if (files == null)
+		{
+			filesByNamespace.put(namespace, new IFile[]{
+				file
+			});
+			return;
+		}
+		IFile[] newFiles = Arrays.copyOf(files, files.length + 1);
+		newFiles[files.length] = file;
+		Arrays.sort(newFiles, PATH_ORDER);
+		filesByNamespace.put(namespace, newFiles);
+	}
+
+	/**
+	 * @return The namespace the file has declared or <code>null</code>.
+	 */
+	public synchronized String remove(IFile file)
+	{
+		String namespace = namespaceByFile.remove(file);
+		if (namespace != null)
+			removeFile(namespace, file);
+		return namespace;
+	}
+
+	private void removeFile(String namespace, IFile file)
+	{
+		IFile[] files = filesByNamespace.get(namespace);
+		if (files == null)
+			return;
+		IFile[] newFiles = new IFile[files.length];
+		int count = 0;
+		for (IFile f : files)
+		{
+			if (!f.equals(file))
+				newFiles[count++] = f;
+		}
+		if (count == 0)
+			filesByNamespace.remove(namespace);
+		else if (count < files.length)
+			filesByNamespace.put(namespace, Arrays.copyOf(newFiles, count));
+	}
+
+	MapperNamespaceMap()
+	{
+		super();
+	}
+}
@@ -0,0 +1,430 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+
+/**
+ * References between mapper files, i.e. <code>refid</code>, <code>select</code>,
+ * <code>resultMap</code> and <code>extends</code> pointing to another namespace.<br>
+ * References are recorded while {@link XmlValidator} validates a file and the ids each mapper
+ * exports are compared with the previous validation, so that only the direct referrers of
+ * changed ids need to be revalidated. When a file changes its namespace, other files declaring
+ * the old or the new namespace are revalidated as well to update duplicate namespace markers.
+ *
+ * @author Iwao AVE!
+ */
+public class MapperReferenceGraph
+{
+	private static final MapperReferenceGraph INSTANCE = new MapperReferenceGraph();
+
+	private final ThreadLocal<Set<Reference>> recording = new ThreadLocal<Set<Reference>>();
+
+	/**
+	 * namespace -> tag#id -> referring files
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, Set<IFile>>> referrers = new ConcurrentHashMap<String, ConcurrentMap<String, Set<IFile>>>();
+
+	private final Map<IFile, Set<Reference>> references = new ConcurrentHashMap<IFile, Set<Reference>>();
+
+	private final Map<IFile, Exports> exports = new ConcurrentHashMap<IFile, Exports>();
+
+	/**
+	 * namespace -> files declaring it
+	 */
+	private final ConcurrentMap<String, Set<IFile>> exporters = new ConcurrentHashMap<String, Set<IFile>>();
+
+	public void beginRecording()
+	{
+		recording.set(new HashSet<Reference>());
+	}
+
+	/**
+	 * Records an external reference if the current thread is validating a file.
+	 */
+	public static void record(String namespace, String tagName, String id)
+	{
+		Set<Reference> refs = INSTANCE.recording.get();
+		if (refs != null)
+			refs.add(new Reference(namespace, tagName + '#' + id));
+	}
+
+	/**
+	 * Stops recording and updates the references and exported ids of the file.
+	 *
+	 * @param documentIndex The index of the validated document or <code>null</code> if the
+	 *          document could not be read.
+	 * @return Other mapper files referring to the ids that have been added or removed since the
+	 *         last validation.
+	 */
+	public Set<IFile> endRecording(IFile file, MapperDocumentIndex documentIndex)
+	{
+		Set<Reference> refs = recording.get();
+		recording.remove();
+		if (refs == null)
+			return Collections.emptySet();
+
+		removeReferences(file);
+		references.put(file, refs);
+		for (Reference ref : refs)
+		{
+			referrersOf(ref.namespace, ref.tagId, true).add(file);
+		}
+
+		if (documentIndex == null)
+			return Collections.emptySet();
+
+		Exports current = new Exports(documentIndex);
+		Exports previous = exports.put(file, current);
+		if (previous != null)
+			removeExporter(previous.namespace, file);
+		addExporter(current.namespace, file);
+		Set<IFile> affected;
+		if (previous == null)
+		{
+			// Only other files declaring the same namespace may be affected.
+			affected = new HashSet<IFile>();
+			addExporters(current.namespace, affected);
+		}
+		else
+		{
+			affected = collectAffected(previous, current);
+		}
+		affected.remove(file);
+		return affected;
+	}
+
+	/**
+	 * Restores the references and exported ids recorded by a validation in a previous session.
+	 *
+	 * @param encodedReferences References in the format returned by {@link #getReferences(IFile)}.
+	 * @param exportedIds <code>tag#id</code> or <code>null</code> if the document could not be
+	 *          read.
+	 */
+	public void restore(IFile file, Collection<String> encodedReferences, String namespace,
+		Collection<String> exportedIds)
+	{
+		Set<Reference> refs = new HashSet<Reference>();
+		for (String encoded : encodedReferences)
+		{
+			int separator = encoded.indexOf(' ');
+			if (separator > 0)
+				refs.add(new Reference(encoded.substring(0, separator),
+					encoded.substring(separator + 1)));
+		}
+		removeReferences(file);
+		references.put(file, refs);
+		for (Reference ref : refs)
+		{
+			referrersOf(ref.namespace, ref.tagId, true).add(file);
+		}
+
+		if (exportedIds == null)
+			return;
+		Exports current = new Exports(namespace, new HashSet<String>(exportedIds));
+		Exports previous = exports.put(file, current);
+		if (previous != null)
+			removeExporter(previous.namespace, file);
+		addExporter(current.namespace, file);
+	}
+
+	/**
+	 * @return References recorded by the last validation of the file, each encoded as
+	 *         <code>namespace tag#id</code>.
+	 */
+	public Set<String> getReferences(IFile file)
+	{
+		Set<String> result = new HashSet<String>();
+		Set<Reference> refs = references.get(file);
+		if (refs != null)
+		{
+			for (Reference ref : refs)
+			{
+				result.add(ref.namespace + ' ' + ref.tagId);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The namespace part of a reference returned by {@link #getReferences(IFile)}.
+	 */
+	public static String getReferencedNamespace(String encodedReference)
+	{
+		int separator = encodedReference.indexOf(' ');
+		return separator == -1 ? encodedReference : encodedReference.substring(0, separator);
+	}
+
+	/**
+	 * @return The namespace the file declared when it was validated last time or
+	 *         <code>null</code>.
+	 */
+	public String getExportedNamespace(IFile file)
+	{
+		Exports current = exports.get(file);
+		return current == null ? null : current.namespace;
+	}
+
+	/**
+	 * @return <code>tag#id</code> the file declared when it was validated last time or
+	 *         <code>null</code> if the document could not be read.
+	 */
+	public Set<String> getExportedIds(IFile file)
+	{
+		Exports current = exports.get(file);
+		return current == null ? null : Collections.unmodifiableSet(current.tagIds);
+	}
+
+	/**
+	 * Removes the file from the graph.
+	 *
+	 * @return Files that referred to the ids exported by the removed file.
+	 */
+	public Set<IFile> remove(IFile file)
+	{
+		removeReferences(file);
+		Exports previous = exports.remove(file);
+		if (previous == null)
+			return Collections.emptySet();
+		removeExporter(previous.namespace, file);
+		Set<IFile> affected = collectAffected(previous, new Exports(null,
+			Collections.<String> emptySet()));
+		affected.remove(file);
+		return affected;
+	}
+
+	public void remove(IProject project)
+	{
+		for (IFile file : new HashSet<IFile>(exports.keySet()))
+		{
+			if (project.equals(file.getProject()))
+			{
+				Exports previous = exports.remove(file);
+				if (previous != null)
+					removeExporter(previous.namespace, file);
+			}
+		}
+		for (IFile file : new HashSet<IFile>(references.keySet()))
+		{
+			if (project.equals(file.getProject()))
+				removeReferences(file);
+		}
+	}
+
+	public void clear()
+	{
+		referrers.clear();
+		references.clear();
+		exports.clear();
+		exporters.clear();
+	}
+
+	private Set<IFile> collectAffected(Exports previous, Exports current)
+	{
+		Set<IFile> affected = new HashSet<IFile>();
+		if (previous.namespace == null ? current.namespace != null
+			: !previous.namespace.equals(current.namespace))
+		{
+			// Every reference to both namespaces may have been resolved differently.
+			addAllReferrers(previous.namespace, affected);
+			addAllReferrers(current.namespace, affected);
+			addExporters(previous.namespace, affected);
+			addExporters(current.namespace, affected);
+			return affected;
+		}
+		if (current.namespace == null)
+			return affected;
+		Map<String, Set<IFile>> byId = referrers.get(current.namespace);
+		if (byId == null)
+			return affected;
+		for (String tagId : previous.tagIds)
+		{
+			if (!current.tagIds.contains(tagId))
+				addReferrers(byId.get(tagId), affected);
+		}
+		for (String tagId : current.tagIds)
+		{
+			if (!previous.tagIds.contains(tagId))
+				addReferrers(byId.get(tagId), affected);
+		}
+		return affected;
+	}
+
+	private void addAllReferrers(String namespace, Set<IFile> affected)
+	{
+		if (namespace == null)
+			return;
+		Map<String, Set<IFile>> byId = referrers.get(namespace);
+		if (byId == null)
+			return;
+		for (Set<IFile> files : byId.values())
+		{
+			addReferrers(files, affected);
+		}
+	}
+
+	private void addExporters(String namespace, Set<IFile> affected)
+	{
+		if (namespace != null)
+			addReferrers(exporters.get(namespace), affected);
+	}
+
+	private void addExporter(String namespace, IFile file)
+	{
+		if (namespace == null)
+			return;
+		while (true)
+		{
+			Set<IFile> files = exporters.get(namespace);
+			if (files == null)
+			{
+				files = Collections.newSetFromMap(new ConcurrentHashMap<IFile, Boolean>());
+				Set<IFile> existing = exporters.putIfAbsent(namespace, files);
+				if (existing != null)
+					files = existing;
+			}
+			files.add(file);
+			// Retry if the set has been removed as empty in the meantime.
+			if (exporters.get(namespace) == files)
+				return;
+		}
+	}
+
+	private void removeExporter(String namespace, IFile file)
+	{
+		if (namespace == null)
+			return;
+		Set<IFile> files = exporters.get(namespace);
+		if (files != null && files.remove(file) && files.isEmpty())
+			exporters.remove(namespace, files);
+	}
+
+	private void addReferrers(Set<IFile> files, Set<IFile> affected)
+	{
+		if (files != null)
+			affected.addAll(files);
+	}
+
+	private Set<IFile> referrersOf(String namespace, String tagId, boolean create)
+	{
+		ConcurrentMap<String, Set<IFile>> byId = referrers.get(namespace);
+		if (byId == null)
+		{
+			if (!create)
+				return null;
+			byId = new ConcurrentHashMap<String, Set<IFile>>();
+			ConcurrentMap<String, Set<IFile>> existing = referrers.putIfAbsent(namespace, byId);
+			if (existing != null)
+				byId = existing;
+		}
+		Set<IFile> files = byId.get(tagId);
+		if (files == null)
+		{
+			if (!create)
+				return null;
+			files = Collections.newSetFromMap(new ConcurrentHashMap<IFile, Boolean>());
+			Set<IFile> existing = byId.putIfAbsent(tagId, files);
+			if (existing != null)
+				files = existing;
+		}
+		return files;
+	}
+
+	private void removeReferences(IFile file)
+	{
+		Set<Reference> refs = references.remove(file);
+		if (refs == null)
+			return;
+		for (Reference ref : refs)
+		{
+			Set<IFile> files = referrersOf(ref.namespace, ref.tagId, false);
+			if (files != null)
+				files.remove(file);
+		}
+	}
+
+	public static MapperReferenceGraph getInstance()
+	{
+		return INSTANCE;
+	}
+
+	private MapperReferenceGraph()
+	{
+		super();
+	}
+
+	private static class Reference
+	{
+		private final String namespace;
+
+		private final String tagId;
+
+		private Reference(String namespace, String tagId)
+		{
+			this.namespace = namespace;
+			this.tagId = tagId;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * namespace.hashCode() + tagId.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Reference))
+				return false;
+			Reference other = (Reference)obj;
+			return namespace.equals(other.namespace) && tagId.equals(other.tagId);
+		}
+	}
+
+	private static class Exports
+	{
+		private final String namespace;
+
+		private final Set<String> tagIds;
+
+		private Exports(MapperDocumentIndex documentIndex)
+		{
+			String ns = documentIndex.getNamespace();
+			this.namespace = ns == null || ns.length() == 0 ? null : ns;
+			this.tagIds = new HashSet<String>();
+			for (String tag : MapperIndex.INDEXED_TAGS)
+			{
+				for (String id : documentIndex.getIds(tag))
+				{
+					tagIds.add(tag + '#' + id);
+				}
+			}
+		}
+
+		private Exports(String namespace, Set<String> tagIds)
+		{
+			this.namespace = namespace;
+			this.tagIds = tagIds;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.harawata.mybatipse.Activator;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Reads the namespace and the statement ids of a mapper file with StAX instead of building a
+ * structured model.<br>
+ * DTD and external entities are not processed.
+ *
+ * @author Iwao AVE!
+ */
+class MapperStreamReader
+{
+	private static final ThreadLocal<XMLInputFactory> inputFactory = new ThreadLocal<XMLInputFactory>()
+	{
+		@Override
+		protected XMLInputFactory initialValue()
+		{
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			return factory;
+		}
+	};
+
+	static XMLStreamReader createReader(InputStream in, String charset)
+		throws XMLStreamException
+	{
+		return inputFactory.get().createXMLStreamReader(in, charset);
+	}
+
+	/**
+	 * @return The contents of the mapper or <code>null</code> if the file could not be read. If
+	 *         the file is not well-formed, the contents before the error are returned.
+	 */
+	static MapperContents read(IFile file)
+	{
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		MapperContents contents = new MapperContents();
+		try
+		{
+			in = new BufferedInputStream(file.getContents());
+			reader = createReader(in, file.getCharset());
+			boolean root = true;
+			while (reader.hasNext())
+			{
+				if (reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				String tagName = reader.getLocalName();
+				if (root)
+				{
+					root = false;
+					if ("mapper".equals(tagName))
+						contents.namespace = reader.getAttributeValue(null, "namespace");
+				}
+				if (MapperIndex.INDEXED_TAGS.contains(tagName))
+				{
+					String id = reader.getAttributeValue(null, "id");
+					if (id != null && id.length() > 0)
+						contents.addId(tagName, id);
+				}
+			}
+			contents.complete = true;
+			return contents;
+		}
+		catch (CoreException e)
+		{
+			Activator.log(Status.WARNING, "Failed to read " + file.getFullPath(), e);
+		}
+		catch (XMLStreamException e)
+		{
+			// Invalid mapper is reported by the validator.
+			return contents;
+		}
+		finally
+		{
+			close(reader);
+			close(in);
+		}
+		return null;
+	}
+
+	private static void close(XMLStreamReader reader)
+	{
+		if (reader == null)
+			return;
+		try
+		{
+			reader.close();
+		}
+		catch (XMLStreamException e)
+		{
+			// ignore
+		}
+	}
+
+	private static void close(InputStream in)
+	{
+		if (in == null)
+			return;
+		try
+		{
+			in.close();
+		}
+		catch (IOException e)
+		{
+			// ignore
+		}
+	}
+
+	private MapperStreamReader()
+	{
+		super();
+	}
+
+	static class MapperContents
+	{
+		private String namespace;
+
+		private final Map<String, Set<String>> ids = new HashMap<String, Set<String>>();
+
+		private boolean complete;
+
+		/**
+		 * @return The namespace or <code>null</code> if it is not specified.
+		 */
+		String getNamespace()
+		{
+			return namespace == null || namespace.length() == 0 ? null : namespace;
+		}
+
+		/**
+		 * @return <code>false</code> if the file is not well-formed and the ids may be missing.
+		 */
+		boolean isComplete()
+		{
+			return complete;
+		}
+
+		/**
+		 * @return tag name -> ids
+		 */
+		Map<String, Set<String>> getIds()
+		{
+			return ids;
+		}
+
+		private void addId(String tagName, String id)
+		{
+			Set<String> tagIds = ids.get(tagName);
+			if (tagIds == null)
+			{
+				tagIds = new LinkedHashSet<String>();
+				ids.put(tagName, tagIds);
+			}
+			tagIds.add(id);
+		}
+	}
+}
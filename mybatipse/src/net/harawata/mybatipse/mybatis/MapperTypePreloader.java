@@ -0,0 +1,238 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.harawata.mybatipse.Activator;
+import net.harawata.mybatipse.bean.BeanPropertyCache;
+import net.harawata.mybatipse.util.NameUtil;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+/**
+ * Resolves the mapper interfaces and the beans used in mapper files in one batch before a full
+ * build, so that the binding environment is created once instead of once per class.<br>
+ * The results are put into {@link MapperMethodCache} and {@link BeanPropertyCache}.
+ *
+ * @author Iwao AVE!
+ */
+public class MapperTypePreloader
+{
+	private static final List<String> typeAttributes = Arrays.asList("type", "resultType",
+		"parameterType", "ofType", "javaType");
+
+	public static void preload(final IJavaProject project, Collection<IFile> mapperFiles,
+		IProgressMonitor monitor)
+	{
+		Set<String> mapperNames = new HashSet<String>();
+		Set<String> beanNames = new HashSet<String>();
+		for (IFile mapperFile : mapperFiles)
+		{
+			if (monitor.isCanceled())
+				return;
+			collectTypeNames(mapperFile, mapperNames, beanNames);
+		}
+
+		final Map<ICompilationUnit, List<String>> mappers = new LinkedHashMap<ICompilationUnit, List<String>>();
+		final Map<ICompilationUnit, List<String>> beans = new LinkedHashMap<ICompilationUnit, List<String>>();
+		try
+		{
+			for (String mapperName : mapperNames)
+			{
+				IType type = project.findType(mapperName);
+				if (type != null && type.isInterface())
+					addSourceType(type, mappers);
+			}
+			for (String beanName : beanNames)
+			{
+				IType type = project.findType(beanName);
+				if (type == null)
+				{
+					String resolved = TypeAliasCache.getInstance().resolveLoadedAlias(project,
+						beanName, monitor);
+					if (resolved != null)
+						type = project.findType(resolved);
+				}
+				if (type != null)
+					addSourceType(type, beans);
+			}
+		}
+		catch (JavaModelException e)
+		{
+			Activator.log(Status.ERROR, e.getMessage(), e);
+			return;
+		}
+		catch (OperationCanceledException e)
+		{
+			// Canceled while waiting for the type aliases.
+			return;
+		}
+
+		Set<ICompilationUnit> units = new HashSet<ICompilationUnit>(mappers.keySet());
+		units.addAll(beans.keySet());
+		if (units.isEmpty() || monitor.isCanceled())
+			return;
+
+		ASTParser parser = ASTParser.newParser(AST.JLS4);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setProject(project);
+		parser.setResolveBindings(true);
+		// Bindings are valid only during the batch, so the caches are filled in acceptAST.
+		parser.createASTs(units.toArray(new ICompilationUnit[units.size()]), new String[0],
+			new ASTRequestor()
+			{
+				@Override
+				public void acceptAST(ICompilationUnit source, CompilationUnit ast)
+				{
+					List<String> mapperFqns = mappers.get(source);
+					if (mapperFqns != null)
+					{
+						for (String mapperFqn : mapperFqns)
+						{
+							MapperMethodCache.getInstance().put(project, mapperFqn, source, ast);
+						}
+					}
+					List<String> beanFqns = beans.get(source);
+					if (beanFqns != null)
+					{
+						for (String beanFqn : beanFqns)
+						{
+							BeanPropertyCache.putBeanPropertyInfo(project, beanFqn, ast);
+						}
+					}
+				}
+			}, monitor);
+	}
+
+	private static void addSourceType(IType type, Map<ICompilationUnit, List<String>> types)
+	{
+		if (type.isBinary())
+			return;
+		ICompilationUnit unit = (ICompilationUnit)type.getAncestor(IJavaElement.COMPILATION_UNIT);
+		if (unit == null)
+			return;
+		List<String> names = types.get(unit);
+		if (names == null)
+		{
+			names = new ArrayList<String>();
+			types.put(unit, names);
+		}
+		names.add(type.getFullyQualifiedName('.'));
+	}
+
+	/**
+	 * Reads the namespace and the type attributes of the mapper without building a DOM.
+	 */
+	private static void collectTypeNames(IFile mapperFile, Set<String> mapperNames,
+		Set<String> beanNames)
+	{
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		try
+		{
+			in = new BufferedInputStream(mapperFile.getContents());
+			reader = MapperStreamReader.createReader(in, mapperFile.getCharset());
+			while (reader.hasNext())
+			{
+				if (reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				boolean isMapper = "mapper".equals(reader.getLocalName());
+				for (int i = 0; i < reader.getAttributeCount(); i++)
+				{
+					String attrName = reader.getAttributeLocalName(i);
+					String attrValue = reader.getAttributeValue(i).trim();
+					if (isMapper && "namespace".equals(attrName))
+						addTypeName(attrValue, mapperNames);
+					else if (typeAttributes.contains(attrName))
+						addTypeName(attrValue, beanNames);
+				}
+			}
+		}
+		catch (CoreException e)
+		{
+			Activator.log(Status.WARNING, "Failed to read " + mapperFile.getFullPath(), e);
+		}
+		catch (XMLStreamException e)
+		{
+			// Invalid mapper is reported by the validator.
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (XMLStreamException e)
+				{
+					// ignore
+				}
+			}
+			if (in != null)
+			{
+				try
+				{
+					in.close();
+				}
+				catch (IOException e)
+				{
+					// ignore
+				}
+			}
+		}
+	}
+
+	private static void addTypeName(String value, Set<String> names)
+	{
+		if (value.length() == 0 || value.indexOf("${") > -1)
+			return;
+		String name = NameUtil.stripTypeArguments(value);
+		while (name.endsWith("[]"))
+			name = name.substring(0, name.length() - 2);
+		if (name.length() > 0 && !MybatipseXmlUtil.isDefaultTypeAlias(name))
+			names.add(MybatipseXmlUtil.normalizeTypeName(name));
+	}
+
+	private MapperTypePreloader()
+	{
+		super();
+	}
+}
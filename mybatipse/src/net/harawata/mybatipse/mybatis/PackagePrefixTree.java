@@ -0,0 +1,83 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Package names split at dots, so that finding the package containing a type costs one lookup
+ * per name segment regardless of the number of registered packages.<br>
+ * Sub-packages of a registered package are included as MyBatis scans them as well.
+ *
+ * @author Iwao AVE!
+ */
+class PackagePrefixTree
+{
+	private final Node root = new Node();
+
+	public void add(String packageName)
+	{
+		Node node = root;
+		for (String segment : packageName.trim().split("\\."))
+		{
+			if (segment.length() == 0)
+				continue;
+			Node child = node.children.get(segment);
+			if (child == null)
+			{
+				child = new Node();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		if (node != root)
+			node.registered = true;
+	}
+
+	public void addAll(Collection<String> packageNames)
+	{
+		for (String packageName : packageNames)
+		{
+			add(packageName);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the qualified name belongs to one of the registered packages
+	 *         or their sub-packages.
+	 */
+	public boolean contains(String qualifiedName)
+	{
+		Node node = root;
+		int start = 0;
+		int end;
+		while ((end = qualifiedName.indexOf('.', start)) > -1)
+		{
+			node = node.children.get(qualifiedName.substring(start, end));
+			if (node == null)
+				return false;
+			if (node.registered)
+				return true;
+			start = end + 1;
+		}
+		return false;
+	}
+
+	private static class Node
+	{
+		private final Map<String, Node> children = new ConcurrentHashMap<String, Node>();
+
+		private volatile boolean registered;
+	}
+}
@@ -13,18 +13,16 @@ package net.harawata.mybatipse.mybatis;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import javax.xml.xpath.XPathExpressionException;
-
 import net.harawata.mybatipse.Activator;
 import net.harawata.mybatipse.bean.BeanPropertyCache;
 import net.harawata.mybatipse.bean.JavaCompletionProposal;
 import net.harawata.mybatipse.util.NameUtil;
-import net.harawata.mybatipse.util.XpathUtil;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.Status;
@@ -41,7 +39,6 @@ import org.eclipse.jdt.core.search.TypeNameRequestor;
 import org.eclipse.jface.text.contentassist.CompletionProposal;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
 import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
 
 /**
  * @author Iwao AVE!
@@ -52,47 +49,39 @@ public class ProposalComputorHelper
 		Document domDoc, String matchString, int start, int length, String targetElement)
 	{
 		List<ICompletionProposal> results = new ArrayList<ICompletionProposal>();
-		try
+		int lastDot = matchString.lastIndexOf('.');
+		if (lastDot == -1)
 		{
-			int lastDot = matchString.lastIndexOf('.');
-			if (lastDot == -1)
-			{
-				char[] matchChrs = matchString.toCharArray();
-				NodeList nodes = XpathUtil.xpathNodes(domDoc, "//" + targetElement + "/@id");
-				results.addAll(proposalFromNodes(nodes, null, matchChrs, start, length));
-				results.addAll(proposeNamespace(project, domDoc, "", matchChrs, start, length));
-			}
-			else
+			char[] matchChrs = matchString.toCharArray();
+			Collection<String> ids = MapperDocumentIndex.get(domDoc).getIds(targetElement);
+			results.addAll(proposalFromIds(ids, null, matchChrs, start, length));
+			results.addAll(proposeNamespace(project, domDoc, "", matchChrs, start, length));
+		}
+		else
+		{
+			String namespace = matchString.substring(0, lastDot);
+			char[] matchChrs = matchString.substring(lastDot + 1).toCharArray();
+			IFile mapperFile = MapperNamespaceCache.getInstance().get(project, namespace, null);
+			if (mapperFile != null)
 			{
-				String namespace = matchString.substring(0, lastDot);
-				char[] matchChrs = matchString.substring(lastDot + 1).toCharArray();
-				IFile mapperFile = MapperNamespaceCache.getInstance().get(project, namespace, null);
-				if (mapperFile != null)
+				Document mapperDoc = MybatipseXmlUtil.getMapperDocument(mapperFile);
+				if (mapperDoc != null)
 				{
-					Document mapperDoc = MybatipseXmlUtil.getMapperDocument(mapperFile);
-					if (mapperDoc != null)
-					{
-						NodeList nodes = XpathUtil.xpathNodes(mapperDoc, "//" + targetElement + "/@id");
-						results.addAll(proposalFromNodes(nodes, namespace, matchChrs, start, length));
-					}
-					results.addAll(proposeNamespace(project, domDoc, namespace, matchChrs, start, length));
+					Collection<String> ids = MapperDocumentIndex.get(mapperDoc).getIds(targetElement);
+					results.addAll(proposalFromIds(ids, namespace, matchChrs, start, length));
 				}
+				results.addAll(proposeNamespace(project, domDoc, namespace, matchChrs, start, length));
 			}
 		}
-		catch (XPathExpressionException e)
-		{
-			Activator.log(Status.ERROR, e.getMessage(), e);
-		}
 		return results;
 	}
 
-	private static List<ICompletionProposal> proposalFromNodes(NodeList nodes, String namespace,
-		char[] matchChrs, int start, int length)
+	private static List<ICompletionProposal> proposalFromIds(Collection<String> ids,
+		String namespace, char[] matchChrs, int start, int length)
 	{
 		List<ICompletionProposal> results = new ArrayList<ICompletionProposal>();
-		for (int j = 0; j < nodes.getLength(); j++)
+		for (String id : ids)
 		{
-			String id = nodes.item(j).getNodeValue();
 			if (matchChrs.length == 0 || CharOperation.camelCaseMatch(matchChrs, id.toCharArray()))
 			{
 				StringBuilder replacementStr = new StringBuilder();
@@ -112,36 +101,27 @@ public class ProposalComputorHelper
 		Document domDoc, String partialNamespace, char[] matchChrs, int start, int length)
 	{
 		final List<ICompletionProposal> results = new ArrayList<ICompletionProposal>();
-		try
+		String currentNamespace = MapperDocumentIndex.get(domDoc).getNamespace();
+		for (String namespace : MapperNamespaceCache.getInstance().getNamespaces(project, null))
 		{
-			String currentNamespace = XpathUtil.xpathString(domDoc, "//mapper/@namespace");
-			for (String namespace : MapperNamespaceCache.getInstance()
-				.getCacheMap(project, null)
-				.keySet())
+			if (!namespace.equals(currentNamespace) && namespace.startsWith(partialNamespace)
+				&& !namespace.equals(partialNamespace))
 			{
-				if (!namespace.equals(currentNamespace) && namespace.startsWith(partialNamespace)
-					&& !namespace.equals(partialNamespace))
+				char[] simpleName = CharOperation.lastSegment(namespace.toCharArray(), '.');
+				if (matchChrs.length == 0 || CharOperation.camelCaseMatch(matchChrs, simpleName))
 				{
-					char[] simpleName = CharOperation.lastSegment(namespace.toCharArray(), '.');
-					if (matchChrs.length == 0 || CharOperation.camelCaseMatch(matchChrs, simpleName))
-					{
-						StringBuilder replacementStr = new StringBuilder().append(namespace).append('.');
-						int cursorPos = replacementStr.length();
-						String displayString = new StringBuilder().append(simpleName)
-							.append(" - ")
-							.append(namespace)
-							.toString();
-						results.add(new JavaCompletionProposal(replacementStr.toString(), start, length,
-							cursorPos, Activator.getIcon("/icons/mybatis-ns.png"), displayString, null, null,
-							100));
-					}
+					StringBuilder replacementStr = new StringBuilder().append(namespace).append('.');
+					int cursorPos = replacementStr.length();
+					String displayString = new StringBuilder().append(simpleName)
+						.append(" - ")
+						.append(namespace)
+						.toString();
+					results.add(new JavaCompletionProposal(replacementStr.toString(), start, length,
+						cursorPos, Activator.getIcon("/icons/mybatis-ns.png"), displayString, null, null,
+						100));
 				}
 			}
 		}
-		catch (XPathExpressionException e)
-		{
-			Activator.log(Status.ERROR, e.getMessage(), e);
-		}
 		return results;
 	}
 
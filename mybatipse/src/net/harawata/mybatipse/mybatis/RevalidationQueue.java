@@ -0,0 +1,140 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import static net.harawata.mybatipse.MybatipseConstants.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.harawata.mybatipse.Activator;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.wst.validation.ValidationFramework;
+
+/**
+ * Mapper files waiting to be validated again because something they depend on has changed.<br>
+ * Requests are merged per file and processed by a single job that starts after the delay in
+ * the preference has passed without new requests, so that a refactoring or a branch switch
+ * touching many files validates each affected mapper once. The job conflicts with builds as
+ * the builder validates mappers as well.
+ *
+ * @author Iwao AVE!
+ */
+public class RevalidationQueue
+{
+	private static final RevalidationQueue INSTANCE = new RevalidationQueue();
+
+	private static final int BATCH_SIZE = 50;
+
+	private final Set<IFile> pending = new LinkedHashSet<IFile>();
+
+	private final WorkspaceJob job = new WorkspaceJob("Validating mappers")
+	{
+		@Override
+		public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException
+		{
+			monitor.beginTask("Validating mappers", IProgressMonitor.UNKNOWN);
+			try
+			{
+				List<IFile> batch;
+				while (!(batch = takeBatch()).isEmpty())
+				{
+					for (IFile file : batch)
+					{
+						if (monitor.isCanceled())
+							return Status.CANCEL_STATUS;
+						if (file.exists())
+						{
+							monitor.subTask(file.getName());
+							ValidationFramework.getDefault().validate(file, monitor);
+						}
+						monitor.worked(1);
+					}
+				}
+				return Status.OK_STATUS;
+			}
+			finally
+			{
+				monitor.done();
+			}
+		}
+	};
+
+	public void add(IFile file)
+	{
+		synchronized (pending)
+		{
+			pending.add(file);
+		}
+		schedule();
+	}
+
+	public void addAll(Collection<IFile> files)
+	{
+		if (files.isEmpty())
+			return;
+		synchronized (pending)
+		{
+			pending.addAll(files);
+		}
+		schedule();
+	}
+
+	private void schedule()
+	{
+		// Restarts the delay if the job is still waiting.
+		job.schedule(getDelay());
+	}
+
+	private List<IFile> takeBatch()
+	{
+		synchronized (pending)
+		{
+			List<IFile> batch = new ArrayList<IFile>(Math.min(BATCH_SIZE, pending.size()));
+			for (Iterator<IFile> iterator = pending.iterator(); iterator.hasNext()
+				&& batch.size() < BATCH_SIZE;)
+			{
+				batch.add(iterator.next());
+				iterator.remove();
+			}
+			return batch;
+		}
+	}
+
+	private long getDelay()
+	{
+		int delay = Activator.getPreferenceInt(null, PREF_REVALIDATION_DELAY, 500);
+		return delay > 0 ? delay : 0L;
+	}
+
+	public static RevalidationQueue getInstance()
+	{
+		return INSTANCE;
+	}
+
+	private RevalidationQueue()
+	{
+		super();
+		job.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
+	}
+}
@@ -0,0 +1,203 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import net.harawata.mybatipse.Activator;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * A file in the state location of the plugin that starts with its format version.<br>
+ * It is written aside and renamed when complete, so that a crash while saving does not leave
+ * a truncated file. A file that cannot be read is treated as corrupt and its content is
+ * discarded.
+ *
+ * @author Iwao AVE!
+ */
+class StateFile
+{
+	/**
+	 * Upper bound of the sizes read from a file, so that a corrupt size is not allocated.
+	 */
+	private static final int MAX_SIZE = 1000000;
+
+	private final String fileName;
+
+	private final int formatVersion;
+
+	private final String description;
+
+	/**
+	 * @param description What the file holds, used in log messages.
+	 */
+	StateFile(String fileName, int formatVersion, String description)
+	{
+		super();
+		this.fileName = fileName;
+		this.formatVersion = formatVersion;
+		this.description = description;
+	}
+
+	/**
+	 * Does nothing if the file does not exist or has been written in another format.
+	 */
+	void load(IPath stateLocation, Reader reader)
+	{
+		File file = stateLocation.append(fileName).toFile();
+		if (!file.isFile())
+			return;
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != formatVersion)
+				return;
+			reader.read(in);
+		}
+		catch (IOException e)
+		{
+			reader.reset();
+			Activator.log(Status.WARNING, "Failed to load " + description + ".", e);
+		}
+		catch (RuntimeException e)
+		{
+			// Corrupt file.
+			reader.reset();
+			Activator.log(Status.WARNING, "Failed to load " + description + ".", e);
+		}
+		finally
+		{
+			close(in);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the file has been saved.
+	 */
+	boolean save(IPath stateLocation, Writer writer)
+	{
+		File file = stateLocation.append(fileName).toFile();
+		File tempFile = stateLocation.append(fileName + ".tmp").toFile();
+		DataOutputStream out = null;
+		try
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			out.writeInt(formatVersion);
+			writer.write(out);
+			out.close();
+			out = null;
+			if (file.exists() && !file.delete() || !tempFile.renameTo(file))
+				throw new IOException("Failed to rename " + tempFile + " to " + file);
+			return true;
+		}
+		catch (IOException e)
+		{
+			Activator.log(Status.WARNING, "Failed to save " + description + ".", e);
+			return false;
+		}
+		finally
+		{
+			close(out);
+		}
+	}
+
+	/**
+	 * @throws IOException If the size is negative or too large.
+	 */
+	static int readSize(DataInputStream in) throws IOException
+	{
+		int size = in.readInt();
+		if (size < 0 || size > MAX_SIZE)
+			throw new IOException("Invalid size " + size);
+		return size;
+	}
+
+	/**
+	 * Writes the string as length-prefixed UTF-8, which unlike
+	 * {@link DataOutputStream#writeUTF(String)} has no 64KB limit. A string longer than the
+	 * readable size is truncated.
+	 */
+	static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes("UTF-8");
+		if (bytes.length > MAX_SIZE)
+			bytes = value.substring(0, MAX_SIZE / 3).getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * @return The string written by {@link #writeString(DataOutputStream, String)}.
+	 */
+	static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length == -1)
+			return null;
+		if (length < 0 || length > MAX_SIZE)
+			throw new IOException("Invalid string length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void close(Closeable closeable)
+	{
+		if (closeable == null)
+			return;
+		try
+		{
+			closeable.close();
+		}
+		catch (IOException e)
+		{
+			// ignore
+		}
+	}
+
+	interface Reader
+	{
+		/**
+		 * Reads what follows the format version.
+		 */
+		void read(DataInputStream in) throws IOException;
+
+		/**
+		 * Discards what has been read from a corrupt file.
+		 */
+		void reset();
+	}
+
+	interface Writer
+	{
+		/**
+		 * Writes what follows the format version.
+		 */
+		void write(DataOutputStream out) throws IOException;
+	}
+}
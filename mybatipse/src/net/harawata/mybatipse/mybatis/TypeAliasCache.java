@@ -14,10 +14,14 @@ package net.harawata.mybatipse.mybatis;
 import static net.harawata.mybatipse.MybatipseConstants.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -26,23 +30,32 @@ import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.xpath.XPathExpressionException;
 
 import net.harawata.mybatipse.Activator;
+import net.harawata.mybatipse.mybatis.MapperIndex.IndexEntry;
+import net.harawata.mybatipse.mybatis.MapperIndex.Kind;
 import net.harawata.mybatipse.mybatis.TypeAliasMap.TypeAliasInfo;
+import net.harawata.mybatipse.nature.MyBatisNature;
 import net.harawata.mybatipse.util.NameUtil;
 import net.harawata.mybatipse.util.XpathUtil;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.content.IContentType;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.IAnnotation;
 import org.eclipse.jdt.core.IJavaProject;
@@ -51,6 +64,7 @@ import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.ITypeRoot;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.compiler.CharOperation;
 import org.eclipse.jdt.core.dom.AST;
@@ -94,15 +108,39 @@ public class TypeAliasCache
 	private static final List<String> declaredTypes = Arrays.asList(GUICE_MODULE_FQN,
 		SPRING_BEAN_FQN);
 
+	private static final long LOAD_WAIT_MILLIS = 1000L;
+
+	private static final NamespaceContext SPRING_NAMESPACE_CONTEXT = new SpringConfigNamespaceContext();
+
 	private final Map<String, TypeAliasMap> projectCache = new ConcurrentHashMap<String, TypeAliasMap>();
 
-	private final Map<String, Set<String>> packageCache = new ConcurrentHashMap<String, Set<String>>();
+	private final Map<String, PackagePrefixTree> packageCache = new ConcurrentHashMap<String, PackagePrefixTree>();
 
 	private final Map<String, Set<String>> superTypeCache = new ConcurrentHashMap<String, Set<String>>();
 
+	private final Map<String, ConfigState> configStates = new ConcurrentHashMap<String, ConfigState>();
+
+	private final ConcurrentMap<String, AliasLoad> loads = new ConcurrentHashMap<String, AliasLoad>();
+
 	public String resolveAlias(IJavaProject javaProject, String alias, IReporter reporter)
 	{
-		Map<String, TypeAliasInfo> aliasMap = getTypeAliasMap(javaProject, reporter);
+		return resolveAlias(getTypeAliasMap(javaProject, reporter), alias);
+	}
+
+	/**
+	 * Unlike {@link #resolveAlias(IJavaProject, String, IReporter)} without a reporter, waits
+	 * until the aliases of the project are loaded completely.
+	 *
+	 * @throws OperationCanceledException If the monitor is canceled while waiting.
+	 */
+	public String resolveLoadedAlias(IJavaProject javaProject, String alias,
+		IProgressMonitor monitor)
+	{
+		return resolveAlias(getTypeAliasMap(javaProject, monitor, true), alias);
+	}
+
+	private String resolveAlias(Map<String, TypeAliasInfo> aliasMap, String alias)
+	{
 		TypeAliasInfo typeAliasInfo = aliasMap.get(alias.toLowerCase(Locale.ENGLISH));
 		return typeAliasInfo == null ? null
 			: MybatipseXmlUtil.normalizeTypeName(typeAliasInfo.getQualifiedName());
@@ -113,26 +151,22 @@ public class TypeAliasCache
 		TypeAliasMap aliasMap = projectCache.get(projectName);
 		if (aliasMap == null)
 			return;
-		Iterator<Entry<String, TypeAliasInfo>> iterator = aliasMap.entrySet().iterator();
-		while (iterator.hasNext())
-		{
-			Entry<String, TypeAliasInfo> entry = iterator.next();
-			if (qualifiedName.equals(entry.getValue().getQualifiedName()))
-			{
-				iterator.remove();
-			}
-		}
+		aliasMap.removeQualifiedName(qualifiedName);
 	}
 
-	public void put(String projectName, IType type, String simpleTypeName)
+	/**
+	 * @return <code>false</code> if the type had the same aliases before.
+	 */
+	public boolean put(String projectName, IType type, String simpleTypeName)
 	{
 		String qualifiedName = type.getFullyQualifiedName();
-		removeType(projectName, qualifiedName);
+		TypeAliasMap aliasMap = projectCache.get(projectName);
+		if (aliasMap == null)
+			return true;
+		Set<String> previous = aliasMap.getAliases(qualifiedName);
+		aliasMap.removeQualifiedName(qualifiedName);
 		try
 		{
-			TypeAliasMap aliasMap = projectCache.get(projectName);
-			if (aliasMap == null)
-				return;
 			String alias = getAliasAnnotationValue(type);
 			if (alias == null)
 			{
@@ -144,32 +178,168 @@ public class TypeAliasCache
 		{
 			Activator.log(Status.ERROR, "Error while resolving alias for type " + qualifiedName, e);
 		}
+		return !previous.equals(aliasMap.getAliases(qualifiedName));
 	}
 
 	public void remove(IProject project)
 	{
 		String projectName = project.getName();
+		abortLoad(loads.remove(projectName));
 		projectCache.remove(projectName);
+		packageCache.remove(projectName);
+		configStates.remove(projectName);
 	}
 
 	public void clear()
 	{
+		for (String projectName : loads.keySet())
+		{
+			abortLoad(loads.remove(projectName));
+		}
 		projectCache.clear();
+		packageCache.clear();
+		configStates.clear();
 	}
 
-	public boolean isInPackage(String projectName, String packageName)
+	private void abortLoad(AliasLoad load)
 	{
-		Set<String> packages = packageCache.get(projectName);
-		if (packages == null)
-			return false;
-		for (String pkg : packages)
+		// The result of a foreground load is discarded, but the caller still uses it.
+		if (load != null && load.background)
+			load.monitor.setCanceled(true);
+	}
+
+	/**
+	 * @param qualifiedName Name of the type to check.
+	 * @return <code>true</code> if the type is in one of the type alias packages of the project.
+	 */
+	public boolean isInPackage(String projectName, String qualifiedName)
+	{
+		PackagePrefixTree packages = packageCache.get(projectName);
+		return packages != null && packages.contains(qualifiedName);
+	}
+
+	/**
+	 * Applies the change of a config file to the loaded aliases.<br>
+	 * Only the type aliases and the packages added or removed by the file are processed, so that
+	 * editing an unrelated setting does not reload all the aliases. If the super types have
+	 * changed or the aliases are being loaded, they are loaded again from scratch.
+	 *
+	 * @param configType Content type of the config file or <code>null</code> if the file is no
+	 *          longer a config file.
+	 */
+	public void updateConfig(IJavaProject javaProject, IFile configFile, IContentType configType)
+	{
+		IProject project = javaProject.getProject();
+		String projectName = project.getName();
+		TypeAliasMap aliasMap = projectCache.get(projectName);
+		ConfigState state = configStates.get(projectName);
+		if (aliasMap == null || state == null || loads.containsKey(projectName))
 		{
-			if (packageName.startsWith(pkg))
+			remove(project);
+			return;
+		}
+
+		IProgressMonitor monitor = new NullProgressMonitor();
+		ConfigContribution current = configType == null ? new ConfigContribution()
+			: readConfig(configFile, configType, monitor);
+		synchronized (state)
+		{
+			ConfigContribution previous = state.contributions.get(configFile);
+			if (previous == null)
+				previous = new ConfigContribution();
+			if (!previous.superTypes.equals(current.superTypes))
+			{
+				// The types in all the packages have to be filtered again.
+				remove(project);
+				return;
+			}
+
+			Set<String> oldPackages = state.getPackages();
+			if (configType == null)
+				state.contributions.remove(configFile);
+			else
+				state.contributions.put(configFile, current);
+			Set<String> newPackages = state.getPackages();
+			PackagePrefixTree packageTree = new PackagePrefixTree();
+			packageTree.addAll(newPackages);
+
+			Set<String> declaredTypeAliases = state.getTypeAliases();
+			for (String typeAlias : previous.typeAliases)
+			{
+				if (!current.typeAliases.contains(typeAlias))
+					removeTypeAlias(javaProject, aliasMap, typeAlias, packageTree,
+						declaredTypeAliases);
+			}
+			List<String> addedTypeAliases = new ArrayList<String>(current.typeAliases);
+			addedTypeAliases.removeAll(previous.typeAliases);
+			putTypeAliases(addedTypeAliases, aliasMap);
+
+			Set<String> removedPackages = new HashSet<String>(oldPackages);
+			removedPackages.removeAll(newPackages);
+			if (!removedPackages.isEmpty())
 			{
-				return true;
+				Set<String> declaredTypes = new HashSet<String>();
+				for (String typeAlias : declaredTypeAliases)
+				{
+					int colonIdx = typeAlias.indexOf(':');
+					declaredTypes.add(colonIdx == -1 ? typeAlias : typeAlias.substring(0, colonIdx));
+				}
+				PackagePrefixTree removedTree = new PackagePrefixTree();
+				removedTree.addAll(removedPackages);
+				for (TypeAliasInfo info : new ArrayList<TypeAliasInfo>(aliasMap.values()))
+				{
+					String qualifiedName = info.getQualifiedName();
+					if (removedTree.contains(qualifiedName) && !packageTree.contains(qualifiedName)
+						&& !declaredTypes.contains(qualifiedName))
+						aliasMap.removeQualifiedName(qualifiedName);
+				}
 			}
+
+			Set<String> addedPackages = new TreeSet<String>(newPackages);
+			addedPackages.removeAll(oldPackages);
+			if (!addedPackages.isEmpty())
+			{
+				Set<String> superTypes = superTypeCache.get(projectName);
+				collectTypesInPackages(javaProject, addedPackages, aliasMap,
+					superTypes == null ? Collections.<String> emptySet() : superTypes, monitor);
+			}
+
+			// Not published if removed meanwhile.
+			if (projectCache.get(projectName) == aliasMap)
+				packageCache.put(projectName, packageTree);
+		}
+	}
+
+	/**
+	 * Removes a type alias that is no longer declared in the config file unless another config
+	 * file declares it as well. If the type is in a type alias package, it is registered with
+	 * the default alias instead.
+	 */
+	private void removeTypeAlias(IJavaProject javaProject, TypeAliasMap aliasMap,
+		String typeAlias, PackagePrefixTree packageTree, Set<String> declaredTypeAliases)
+	{
+		if (declaredTypeAliases.contains(typeAlias))
+			return;
+		int colonIdx = typeAlias.indexOf(':');
+		String qualifiedName = colonIdx == -1 ? typeAlias : typeAlias.substring(0, colonIdx);
+		String alias = colonIdx == -1 ? qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1)
+			: typeAlias.substring(colonIdx + 1);
+		String key = alias.toLowerCase(Locale.ENGLISH);
+		TypeAliasInfo info = aliasMap.get(key);
+		if (info != null && qualifiedName.equals(info.getQualifiedName()))
+			aliasMap.remove(key);
+		if (!packageTree.contains(qualifiedName) || !aliasMap.getAliases(qualifiedName).isEmpty())
+			return;
+		try
+		{
+			IType type = javaProject.findType(qualifiedName);
+			if (type != null)
+				put(javaProject.getElementName(), type, type.getElementName());
+		}
+		catch (JavaModelException e)
+		{
+			Activator.log(Status.ERROR, "Error while resolving alias for type " + qualifiedName, e);
 		}
-		return false;
 	}
 
 	public Map<String, String> searchTypeAliases(IJavaProject javaProject, String matchString)
@@ -191,21 +361,105 @@ public class TypeAliasCache
 		return results;
 	}
 
+	/**
+	 * Schedules a background job that loads the type aliases of the project if it has MyBatis
+	 * nature, so that the first content assist or hyperlink does not have to wait.
+	 */
+	public void scheduleWarmUp(final IProject project)
+	{
+		try
+		{
+			if (!project.isOpen() || !project.hasNature(MyBatisNature.NATURE_ID))
+				return;
+		}
+		catch (CoreException e)
+		{
+			Activator.log(Status.ERROR, e.getMessage(), e);
+			return;
+		}
+		Job job = new Job("Loading type aliases of " + project.getName())
+		{
+			@Override
+			protected IStatus run(IProgressMonitor monitor)
+			{
+				IJavaProject javaProject = JavaCore.create(project);
+				if (!javaProject.exists() || projectCache.containsKey(project.getName()))
+					return Status.OK_STATUS;
+				try
+				{
+					load(javaProject, monitor, true);
+				}
+				catch (OperationCanceledException e)
+				{
+					return Status.CANCEL_STATUS;
+				}
+				return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.setPriority(Job.DECORATE);
+		job.schedule();
+	}
+
+	/**
+	 * Returns the loaded type aliases of the project.<br>
+	 * If another thread is loading them, validation (i.e. with a reporter) waits for it to finish
+	 * while the other callers wait up to {@link #LOAD_WAIT_MILLIS} and get the aliases found so
+	 * far.
+	 */
 	private TypeAliasMap getTypeAliasMap(IJavaProject javaProject, IReporter reporter)
+	{
+		return getTypeAliasMap(javaProject, reporter == null ? new NullProgressMonitor()
+			: new ReporterMonitor(reporter), reporter != null);
+	}
+
+	/**
+	 * @param complete If <code>true</code>, waits for the load by another thread to finish.
+	 *          Otherwise waits up to {@link #LOAD_WAIT_MILLIS}.
+	 */
+	private TypeAliasMap getTypeAliasMap(IJavaProject javaProject, IProgressMonitor monitor,
+		boolean complete)
 	{
 		String projectName = javaProject.getElementName();
 		TypeAliasMap aliasMap = projectCache.get(projectName);
-		if (aliasMap == null)
+		while (aliasMap == null)
 		{
-			Map<IFile, IContentType> configFiles = ConfigRegistry.getInstance().get(javaProject);
-			aliasMap = new TypeAliasMap();
-			projectCache.put(projectName, aliasMap);
-			packageCache.remove(projectName);
-			superTypeCache.remove(projectName);
+			AliasLoad load = loads.get(projectName);
+			if (load == null)
+				aliasMap = load(javaProject, monitor, false);
+			else
+				aliasMap = load.await(monitor, complete);
+			// The other load may have published the aliases in the meantime.
+			if (aliasMap == null)
+				aliasMap = projectCache.get(projectName);
+		}
+		return aliasMap;
+	}
+
+	/**
+	 * @return The loaded aliases or <code>null</code> if another thread has started loading.
+	 */
+	private TypeAliasMap load(IJavaProject javaProject, IProgressMonitor monitor,
+		boolean background)
+	{
+		String projectName = javaProject.getElementName();
+		// This may remove the aliases of the project, so it must precede the registration.
+		Map<IFile, IContentType> configFiles = ConfigRegistry.getInstance().get(javaProject);
+		AliasLoad load = new AliasLoad(monitor, background);
+		if (loads.putIfAbsent(projectName, load) != null)
+			return null;
+		try
+		{
+			// Another load may have completed after the caller looked up the cache.
+			TypeAliasMap cached = projectCache.get(projectName);
+			if (cached != null)
+				return cached;
+			TypeAliasMap aliasMap = load.aliasMap;
 			Set<String> packages = new TreeSet<String>();
-			packageCache.put(projectName, packages);
 			Set<String> superTypes = new HashSet<String>();
-			superTypeCache.put(projectName, superTypes);
+			// Packages that are not specified in config files.
+			Set<String> otherPackages = new TreeSet<String>();
+			Map<IFile, ConfigContribution> contributions = new HashMap<IFile, ConfigContribution>();
 
 			// Lookup the settings.
 			IPreferenceStore store = Activator.getPreferenceStore(javaProject.getProject());
@@ -226,7 +480,7 @@ public class TypeAliasCache
 					{
 						IType type = javaProject.findType(token);
 						if (type == null)
-							packages.add(token);
+							otherPackages.add(token);
 						else
 						{
 							String alias = getAliasAnnotationValue(type);
@@ -261,20 +515,40 @@ public class TypeAliasCache
 			// Parse config xml files (mybatis and spring).
 			for (Entry<IFile, IContentType> configFile : configFiles.entrySet())
 			{
-				parseConfigFiles(javaProject, configFile.getKey(), configFile.getValue(), aliasMap,
-					packages, superTypes, reporter);
+				ConfigContribution contribution = readConfig(configFile.getKey(),
+					configFile.getValue(), monitor);
+				contributions.put(configFile.getKey(), contribution);
+				applyConfigContributions(contribution.typeAliases, contribution.packages,
+					contribution.superTypes, aliasMap, packages, superTypes);
 			}
 
 			// Search calls registering type aliases in java code.
-			scanJavaConfig(javaProject, aliasMap, packages, reporter);
+			scanJavaConfig(javaProject, aliasMap, otherPackages, monitor);
+			packages.addAll(otherPackages);
 
 			// Scan classes in the packages.
 			if (!packages.isEmpty())
 			{
-				collectTypesInPackages(javaProject, packages, aliasMap, superTypes, reporter);
+				collectTypesInPackages(javaProject, packages, aliasMap, superTypes, monitor);
+			}
+			PackagePrefixTree packageTree = new PackagePrefixTree();
+			packageTree.addAll(packages);
+			// Not published if removed while loading.
+			if (loads.remove(projectName, load))
+			{
+				packageCache.put(projectName, packageTree);
+				superTypeCache.put(projectName, superTypes);
+				configStates.put(projectName, new ConfigState(otherPackages, contributions));
+				projectCache.put(projectName, aliasMap);
+				load.completed = true;
 			}
+			return aliasMap;
+		}
+		finally
+		{
+			loads.remove(projectName, load);
+			load.done.countDown();
 		}
-		return aliasMap;
 	}
 
 	/**
@@ -284,7 +558,7 @@ public class TypeAliasCache
 	 * </p>
 	 */
 	private void scanJavaConfig(IJavaProject project, final TypeAliasMap aliasMap,
-		final Set<String> packages, IReporter reporter)
+		final Set<String> packages, IProgressMonitor monitor)
 	{
 		try
 		{
@@ -312,7 +586,7 @@ public class TypeAliasCache
 				IJavaSearchConstants.REFERENCES | IJavaSearchConstants.IGNORE_DECLARING_TYPE
 					| IJavaSearchConstants.IMPLEMENTORS);
 			searchEngine.search(pattern, participants, scope, new MethodSearchRequestor(typeRoots),
-				null);
+				monitor);
 
 			IMethod addSimpleAliasesMethodWithPackage = mybatisModuleType.getMethod(
 				"addSimpleAliases", new String[]{
@@ -321,7 +595,7 @@ public class TypeAliasCache
 			pattern = SearchPattern.createPattern(addSimpleAliasesMethodWithPackage,
 				IJavaSearchConstants.REFERENCES | IJavaSearchConstants.IGNORE_DECLARING_TYPE);
 			searchEngine.search(pattern, participants, scope, new MethodSearchRequestor(typeRoots),
-				null);
+				monitor);
 
 			// IMethod addSimpleAliasesMethodWithPackageAndTest = mybatisModuleType.getMethod(
 			// "addSimpleAliases", new String[]{
@@ -369,10 +643,26 @@ public class TypeAliasCache
 		}
 	}
 
-	private void parseConfigFiles(IJavaProject project, IFile configFile,
-		IContentType configType, final TypeAliasMap aliasMap, Set<String> packages,
-		Set<String> superTypeList, IReporter reporter)
+	/**
+	 * @return The type aliases, packages and super types declared in the config file.
+	 */
+	private ConfigContribution readConfig(IFile configFile, IContentType configType,
+		IProgressMonitor monitor)
 	{
+		ConfigContribution contribution = new ConfigContribution();
+		IndexEntry entry = MapperIndex.getInstance().get(configFile);
+		if (entry != null && entry.hasAliasInfo())
+		{
+			// Unchanged since it was indexed.
+			contribution.typeAliases.addAll(entry.getTypeAliases());
+			contribution.packages.addAll(entry.getAliasPackages());
+			contribution.superTypes.addAll(entry.getSuperTypes());
+			return contribution;
+		}
+
+		List<String> fileTypeAliases = contribution.typeAliases;
+		Set<String> filePackages = contribution.packages;
+		Set<String> fileSuperTypes = contribution.superTypes;
 		IStructuredModel model = null;
 		try
 		{
@@ -380,7 +670,7 @@ public class TypeAliasCache
 			IDOMModel domModel = (IDOMModel)model;
 			IDOMDocument domDoc = domModel.getDocument();
 
-			if (reporter != null && reporter.isCancelled())
+			if (monitor.isCanceled())
 			{
 				throw new OperationCanceledException();
 			}
@@ -388,27 +678,29 @@ public class TypeAliasCache
 			if (configContentType.equals(configType))
 			{
 				// Parse <typeAlias /> tags.
-				parseTypeAliasElements(domDoc, aliasMap);
+				parseTypeAliasElements(domDoc, fileTypeAliases);
 
-				if (reporter != null && reporter.isCancelled())
+				if (monitor.isCanceled())
 				{
 					throw new OperationCanceledException();
 				}
 
 				// Parse <packags /> tags.
-				parsePackageElements(domDoc, packages);
+				parsePackageElements(domDoc, filePackages);
 			}
 			else if (springConfigContentType.equals(configType))
 			{
-				parseTypeAliasesPackage(packages, domDoc);
+				parseTypeAliasesPackage(filePackages, domDoc);
 
-				if (reporter != null && reporter.isCancelled())
+				if (monitor.isCanceled())
 				{
 					throw new OperationCanceledException();
 				}
 
-				parseTypeAliasesSuperType(superTypeList, domDoc);
+				parseTypeAliasesSuperType(fileSuperTypes, domDoc);
 			}
+			MapperIndex.getInstance().putConfig(configFile, Kind.of(configType), filePackages,
+				fileTypeAliases, fileSuperTypes);
 		}
 		catch (XPathExpressionException e)
 		{
@@ -430,6 +722,34 @@ public class TypeAliasCache
 				model.releaseFromRead();
 			}
 		}
+		return contribution;
+	}
+
+	/**
+	 * @param typeAliases <code>qualifiedName</code> or <code>qualifiedName:alias</code>
+	 */
+	private void applyConfigContributions(Collection<String> typeAliases,
+		Collection<String> filePackages, Collection<String> fileSuperTypes, TypeAliasMap aliasMap,
+		Set<String> packages, Set<String> superTypeList)
+	{
+		putTypeAliases(typeAliases, aliasMap);
+		packages.addAll(filePackages);
+		superTypeList.addAll(fileSuperTypes);
+	}
+
+	/**
+	 * @param typeAliases <code>qualifiedName</code> or <code>qualifiedName:alias</code>
+	 */
+	private void putTypeAliases(Collection<String> typeAliases, TypeAliasMap aliasMap)
+	{
+		for (String typeAlias : typeAliases)
+		{
+			int colonIdx = typeAlias.indexOf(':');
+			if (colonIdx == -1)
+				aliasMap.put(typeAlias);
+			else
+				aliasMap.put(typeAlias.substring(colonIdx + 1), typeAlias.substring(0, colonIdx));
+		}
 	}
 
 	private void parseTypeAliasesPackage(Set<String> packages, IDOMDocument domDoc)
@@ -438,7 +758,7 @@ public class TypeAliasCache
 		// There can be multiple SqlSessionFactoryBeans.
 		NodeList nodes = XpathUtil.xpathNodes(domDoc,
 			"//beans:bean/beans:property[@name='typeAliasesPackage']/@value",
-			new SpringConfigNamespaceContext());
+			SPRING_NAMESPACE_CONTEXT);
 		// NodeList nodes = XpathUtil.xpathNodes(domDoc,
 		// "//*[namespace-uri() = 'http://www.springframework.org/schema/beans']"
 		// + "[local-name() = 'property'][@name='typeAliasesPackage']/@value");
@@ -460,7 +780,7 @@ public class TypeAliasCache
 		// There can be multiple SqlSessionFactoryBeans.
 		NodeList nodes = XpathUtil.xpathNodes(domDoc,
 			"//beans:bean/beans:property[@name='typeAliasesSuperType']/@value",
-			new SpringConfigNamespaceContext());
+			SPRING_NAMESPACE_CONTEXT);
 		// NodeList nodes = XpathUtil.xpathNodes(domDoc,
 		// "//*[namespace-uri() = 'http://www.springframework.org/schema/beans']"
 		// + "[local-name() = 'property'][@name='typeAliasesSuperType']/@value");
@@ -471,21 +791,16 @@ public class TypeAliasCache
 		}
 	}
 
+	/**
+	 * Registers the classes in the packages with one type name search.<br>
+	 * If super types are specified, the subtypes of them are resolved with one type hierarchy
+	 * each and the found classes are filtered by name.
+	 */
 	private void collectTypesInPackages(final IJavaProject project, Set<String> packages,
-		final TypeAliasMap aliasMap, Set<String> superTypes, IReporter reporter)
+		final TypeAliasMap aliasMap, Set<String> superTypes, IProgressMonitor monitor)
 	{
-		final Set<IType> superTypeSet = new HashSet<IType>();
-		try
-		{
-			for (String supType : superTypes)
-			{
-				superTypeSet.add(project.findType(supType));
-			}
-		}
-		catch (JavaModelException e)
-		{
-			Activator.log(Status.ERROR, e.getMessage(), e);
-		}
+		final Set<String> subtypeNames = superTypes.isEmpty() ? null : collectSubtypeNames(
+			project, superTypes, monitor);
 
 		int includeMask = IJavaSearchScope.SOURCES | IJavaSearchScope.REFERENCED_PROJECTS
 			| IJavaSearchScope.APPLICATION_LIBRARIES | IJavaSearchScope.SYSTEM_LIBRARIES;
@@ -498,63 +813,86 @@ public class TypeAliasCache
 			public void acceptType(int modifiers, char[] packageName, char[] simpleTypeName,
 				char[][] enclosingTypeNames, String path)
 			{
-				// Ignore abstract classes.
-				if (Flags.isAbstract(modifiers))
+				// Ignore abstract classes, interfaces, enums and annotations.
+				if (Flags.isAbstract(modifiers) || Flags.isInterface(modifiers)
+					|| Flags.isEnum(modifiers) || Flags.isAnnotation(modifiers))
 					return;
 
 				String qualifiedName = NameUtil.buildQualifiedName(packageName, simpleTypeName,
 					enclosingTypeNames, false);
+				if (subtypeNames != null && !subtypeNames.contains(qualifiedName))
+					return;
 				try
 				{
 					IType foundType = project.findType(qualifiedName);
-					if (superTypeSet.isEmpty() || isSuperTypeMatched(foundType, superTypeSet))
+					if (foundType == null)
+						return;
+					String alias = getAliasAnnotationValue(foundType);
+					if (alias == null)
 					{
-						String alias = getAliasAnnotationValue(foundType);
-						if (alias == null)
-						{
-							alias = new String(simpleTypeName);
-						}
-						aliasMap.put(alias, qualifiedName);
+						alias = new String(simpleTypeName);
 					}
+					aliasMap.put(alias, qualifiedName);
 				}
 				catch (JavaModelException e)
 				{
 					Activator.log(Status.WARNING, "Error occurred while searching type alias.", e);
 				}
 			}
-
-			private boolean isSuperTypeMatched(IType foundType, Set<IType> superTypeSet)
-				throws JavaModelException
-			{
-				for (IType superType : superTypeSet)
-				{
-					if (isAssignable(foundType, superType))
-					{
-						return true;
-					}
-				}
-				return false;
-			}
 		};
 
-		SearchEngine searchEngine = new SearchEngine();
+		if (monitor.isCanceled())
+		{
+			throw new OperationCanceledException();
+		}
+		char[][] packageNames = new char[packages.size()][];
+		int i = 0;
 		for (String pkg : packages)
 		{
-			if (reporter != null && reporter.isCancelled())
+			packageNames[i++] = pkg.toCharArray();
+		}
+		try
+		{
+			new SearchEngine().searchAllTypeNames(packageNames, null, scope, requestor,
+				IJavaSearchConstants.WAIT_UNTIL_READY_TO_SEARCH, monitor);
+		}
+		catch (JavaModelException e)
+		{
+			Activator.log(Status.ERROR, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return Qualified names of the super types and all their subtypes in the project.
+	 */
+	private Set<String> collectSubtypeNames(IJavaProject project, Set<String> superTypes,
+		IProgressMonitor monitor)
+	{
+		Set<String> subtypeNames = new HashSet<String>();
+		for (String superTypeName : superTypes)
+		{
+			if (monitor.isCanceled())
 			{
 				throw new OperationCanceledException();
 			}
 			try
 			{
-				searchEngine.searchAllTypeNames(pkg.toCharArray(), SearchPattern.R_EXACT_MATCH, null,
-					SearchPattern.R_CAMELCASE_MATCH, IJavaSearchConstants.CLASS, scope, requestor,
-					IJavaSearchConstants.WAIT_UNTIL_READY_TO_SEARCH, null);
+				IType superType = project.findType(superTypeName);
+				if (superType == null)
+					continue;
+				subtypeNames.add(superType.getFullyQualifiedName('.'));
+				ITypeHierarchy hierarchy = superType.newTypeHierarchy(project, monitor);
+				for (IType subtype : hierarchy.getAllSubtypes(superType))
+				{
+					subtypeNames.add(subtype.getFullyQualifiedName('.'));
+				}
 			}
 			catch (JavaModelException e)
 			{
 				Activator.log(Status.ERROR, e.getMessage(), e);
 			}
 		}
+		return subtypeNames;
 	}
 
 	private String getAliasAnnotationValue(IType foundType) throws JavaModelException
@@ -586,7 +924,7 @@ public class TypeAliasCache
 		}
 	}
 
-	private void parseTypeAliasElements(IDOMDocument domDoc, final TypeAliasMap aliasMap)
+	private void parseTypeAliasElements(IDOMDocument domDoc, List<String> typeAliases)
 		throws XPathExpressionException
 	{
 		NodeList nodes = XpathUtil.xpathNodes(domDoc, "//typeAliases/typeAlias");
@@ -604,17 +942,12 @@ public class TypeAliasCache
 				else if ("alias".equals(attrName))
 					alias = attr.getValue();
 			}
-			aliasMap.put(alias, type);
+			if (type == null || type.length() == 0)
+				continue;
+			typeAliases.add(alias == null || alias.length() == 0 ? type : type + ":" + alias);
 		}
 	}
 
-	private boolean isAssignable(final IType type, final IType targetType)
-		throws JavaModelException
-	{
-		final ITypeHierarchy supertypes = type.newSupertypeHierarchy(new NullProgressMonitor());
-		return supertypes.contains(targetType);
-	}
-
 	public static TypeAliasCache getInstance()
 	{
 		return INSTANCE;
@@ -734,7 +1067,123 @@ public class TypeAliasCache
 		}
 	}
 
-	private class SpringConfigNamespaceContext implements NamespaceContext
+	/**
+	 * Type aliases, packages and super types declared in a config file.
+	 */
+	private static class ConfigContribution
+	{
+		private final List<String> typeAliases = new ArrayList<String>();
+
+		private final Set<String> packages = new LinkedHashSet<String>();
+
+		private final Set<String> superTypes = new LinkedHashSet<String>();
+	}
+
+	/**
+	 * What the loaded aliases of a project have been built from.
+	 */
+	private static class ConfigState
+	{
+		private final Set<String> otherPackages;
+
+		private final Map<IFile, ConfigContribution> contributions;
+
+		private ConfigState(Set<String> otherPackages,
+			Map<IFile, ConfigContribution> contributions)
+		{
+			super();
+			this.otherPackages = otherPackages;
+			this.contributions = contributions;
+		}
+
+		private Set<String> getPackages()
+		{
+			Set<String> packages = new HashSet<String>(otherPackages);
+			for (ConfigContribution contribution : contributions.values())
+			{
+				packages.addAll(contribution.packages);
+			}
+			return packages;
+		}
+
+		private Set<String> getTypeAliases()
+		{
+			Set<String> typeAliases = new HashSet<String>();
+			for (ConfigContribution contribution : contributions.values())
+			{
+				typeAliases.addAll(contribution.typeAliases);
+			}
+			return typeAliases;
+		}
+	}
+
+	private static class AliasLoad
+	{
+		private final TypeAliasMap aliasMap = new TypeAliasMap();
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private final IProgressMonitor monitor;
+
+		private final boolean background;
+
+		private volatile boolean completed;
+
+		private AliasLoad(IProgressMonitor monitor, boolean background)
+		{
+			this.monitor = monitor;
+			this.background = background;
+		}
+
+		/**
+		 * @return The aliases or <code>null</code> if the caller should retry because the load has
+		 *         finished without publishing them, i.e. it has been aborted or has found the
+		 *         aliases published by another load.
+		 */
+		private TypeAliasMap await(IProgressMonitor monitor, boolean complete)
+		{
+			try
+			{
+				if (!complete)
+				{
+					// Aliases found so far if the load takes longer.
+					if (!done.await(LOAD_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+						return aliasMap;
+					return completed ? aliasMap : null;
+				}
+				while (!done.await(100L, TimeUnit.MILLISECONDS))
+				{
+					if (monitor.isCanceled())
+						throw new OperationCanceledException();
+				}
+				return completed ? aliasMap : null;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return aliasMap;
+			}
+		}
+	}
+
+	private static class ReporterMonitor extends NullProgressMonitor
+	{
+		private final IReporter reporter;
+
+		private ReporterMonitor(IReporter reporter)
+		{
+			super();
+			this.reporter = reporter;
+		}
+
+		@Override
+		public boolean isCanceled()
+		{
+			return super.isCanceled() || reporter.isCancelled();
+		}
+	}
+
+	private static class SpringConfigNamespaceContext implements NamespaceContext
 	{
 		@Override
 		public String getNamespaceURI(String prefix)
@@ -11,18 +11,32 @@
 
 package net.harawata.mybatipse.mybatis;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.harawata.mybatipse.mybatis.TypeAliasMap.TypeAliasInfo;
 
 /**
+ * Type aliases keyed by lower case alias.<br>
+ * Aliases are also indexed by qualified name, so that a changed type can be removed without
+ * scanning all the aliases. Modifications must go through <code>put</code>,
+ * <code>remove</code> and <code>clear</code> to keep the index consistent.
+ *
  * @author Iwao AVE!
  */
 public class TypeAliasMap extends ConcurrentHashMap<String, TypeAliasInfo>
 {
 	private static final long serialVersionUID = -7286252877431348258L;
 
+	/**
+	 * qualified name -> keys (i.e. lower case aliases)
+	 */
+	private final Map<String, Set<String>> keysByQualifiedName = new ConcurrentHashMap<String, Set<String>>();
+
 	public void put(String qualifiedName)
 	{
 		put(null, qualifiedName);
@@ -42,6 +56,77 @@ public class TypeAliasMap extends ConcurrentHashMap<String, TypeAliasInfo>
 		this.put(alias.toLowerCase(Locale.ENGLISH), new TypeAliasInfo(alias, qualifiedName));
 	}
 
+	@Override
+	public synchronized TypeAliasInfo put(String key, TypeAliasInfo value)
+	{
+		TypeAliasInfo previous = super.put(key, value);
+		if (previous != null)
+			unindex(key, previous.getQualifiedName());
+		Set<String> keys = keysByQualifiedName.get(value.getQualifiedName());
+		if (keys == null)
+		{
+			keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			keysByQualifiedName.put(value.getQualifiedName(), keys);
+		}
+		keys.add(key);
+		return previous;
+	}
+
+	@Override
+	public synchronized TypeAliasInfo remove(Object key)
+	{
+		TypeAliasInfo removed = super.remove(key);
+		if (removed != null)
+			unindex((String)key, removed.getQualifiedName());
+		return removed;
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		super.clear();
+		keysByQualifiedName.clear();
+	}
+
+	/**
+	 * Removes all the aliases of the type.
+	 */
+	public synchronized void removeQualifiedName(String qualifiedName)
+	{
+		Set<String> keys = keysByQualifiedName.remove(qualifiedName);
+		if (keys == null)
+			return;
+		for (String key : keys)
+		{
+			super.remove(key);
+		}
+	}
+
+	public Set<String> getAliases(String qualifiedName)
+	{
+		Set<String> keys = keysByQualifiedName.get(qualifiedName);
+		if (keys == null)
+			return Collections.emptySet();
+		Set<String> aliases = new HashSet<String>();
+		for (String key : keys)
+		{
+			TypeAliasInfo info = get(key);
+			if (info != null)
+				aliases.add(info.getAliasToInsert());
+		}
+		return aliases;
+	}
+
+	private void unindex(String key, String qualifiedName)
+	{
+		Set<String> keys = keysByQualifiedName.get(qualifiedName);
+		if (keys == null)
+			return;
+		keys.remove(key);
+		if (keys.isEmpty())
+			keysByQualifiedName.remove(qualifiedName);
+	}
+
 	static class TypeAliasInfo
 	{
 		private String aliasToInsert;
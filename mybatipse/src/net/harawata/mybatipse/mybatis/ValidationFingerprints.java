@@ -0,0 +1,666 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.harawata.mybatipse.Activator;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.wst.validation.ValidationResult;
+import org.eclipse.wst.validation.ValidatorMessage;
+
+/**
+ * Persistent fingerprints of the last validation of each XML file.<br>
+ * A fingerprint consists of the digest of the file content and the digest of what the
+ * validation depended on: the resolved classpath, the modification stamps of the resources
+ * declaring the Java types looked up and the mapper files declaring the referenced
+ * namespaces. As the stamps are read from the resources, changes made while the workbench
+ * was not running are detected as well. Type aliases and preferences are not part of the
+ * digest; the fingerprints of the project are removed instead when they change.<br>
+ * The types and references recorded by the validation are kept as well, so that
+ * {@link JavaDependencyIndex} and {@link MapperReferenceGraph} can be restored when the
+ * validation of an unchanged file is skipped. So are the problems it reported, because the
+ * validation framework replaces the markers of the file with the result.
+ *
+ * @author Iwao AVE!
+ */
+public class ValidationFingerprints
+{
+	private static final ValidationFingerprints INSTANCE = new ValidationFingerprints();
+
+	private static final StateFile STATE_FILE = new StateFile("validationFingerprints.dat", 3,
+		"validation fingerprints");
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+
+	private final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+
+	/**
+	 * Incremented when a type changes. Not saved, it only tells whether a type changed while a
+	 * file was being validated.
+	 */
+	private final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * project name -> digest of the resolved classpath
+	 */
+	private final Map<String, byte[]> classpathDigests = new ConcurrentHashMap<String, byte[]>();
+
+	private volatile boolean dirty;
+
+	/**
+	 * @return The digest of the current content of the file or <code>null</code> if it could
+	 *         not be read.
+	 */
+	public byte[] digestContent(IFile file)
+	{
+		InputStream in = null;
+		try
+		{
+			MessageDigest digest = newDigest();
+			in = new BufferedInputStream(file.getContents());
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = in.read(buffer)) != -1)
+			{
+				digest.update(buffer, 0, length);
+			}
+			return digest.digest();
+		}
+		catch (CoreException e)
+		{
+			// The validator reports the problem.
+			return null;
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+		finally
+		{
+			if (in != null)
+			{
+				try
+				{
+					in.close();
+				}
+				catch (IOException e)
+				{
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * If neither the content nor the dependencies of the file have changed since the last
+	 * validation, restores the dependencies in {@link JavaDependencyIndex} and
+	 * {@link MapperReferenceGraph} and adds the problems of the last validation to the result.
+	 *
+	 * @param contentDigest The value returned by {@link #digestContent(IFile)}.
+	 * @return <code>true</code> if the validation can be skipped.
+	 */
+	public boolean restoreIfUnchanged(IFile file, byte[] contentDigest, ValidationResult result)
+	{
+		if (contentDigest == null)
+			return false;
+		Fingerprint fingerprint = fingerprints.get(key(file));
+		if (fingerprint == null || !Arrays.equals(fingerprint.contentDigest, contentDigest))
+			return false;
+		byte[] dependencyDigest = digestDependencies(file, fingerprint.types,
+			fingerprint.references, fingerprint.namespace);
+		if (dependencyDigest == null
+			|| !Arrays.equals(fingerprint.dependencyDigest, dependencyDigest))
+			return false;
+		JavaDependencyIndex.getInstance().put(file, new HashSet<String>(fingerprint.types));
+		MapperReferenceGraph.getInstance().restore(file, fingerprint.references,
+			fingerprint.namespace, fingerprint.exportedIds);
+		for (Problem problem : fingerprint.problems)
+		{
+			result.add(problem.toMessage(file));
+		}
+		return true;
+	}
+
+	/**
+	 * Records the fingerprint of the file that has just been validated.<br>
+	 * Call this after the recordings of {@link JavaDependencyIndex} and
+	 * {@link MapperReferenceGraph} have ended.
+	 *
+	 * @param contentDigest The digest of the content taken before the validation.
+	 * @param version The value returned by {@link #getVersion()} before the validation.
+	 * @param messages The problems reported by the validation.
+	 */
+	public void put(IFile file, byte[] contentDigest, long version, ValidatorMessage[] messages)
+	{
+		if (contentDigest == null)
+		{
+			remove(file);
+			return;
+		}
+		if (counter.get() != version)
+		{
+			// A type changed while validating. The result may be based on the old type.
+			remove(file);
+			return;
+		}
+		Set<String> types = JavaDependencyIndex.getInstance().getDependencies(file);
+		MapperReferenceGraph graph = MapperReferenceGraph.getInstance();
+		Set<String> references = graph.getReferences(file);
+		String namespace = graph.getExportedNamespace(file);
+		Set<String> exportedIds = graph.getExportedIds(file);
+		byte[] dependencyDigest = digestDependencies(file, types, references, namespace);
+		if (dependencyDigest == null)
+		{
+			remove(file);
+			return;
+		}
+		List<Problem> problems = new ArrayList<Problem>(messages.length);
+		for (ValidatorMessage message : messages)
+		{
+			problems.add(Problem.of(message));
+		}
+		fingerprints.put(key(file), new Fingerprint(contentDigest, dependencyDigest,
+			new ArrayList<String>(types), new ArrayList<String>(references), namespace,
+			exportedIds == null ? null : new ArrayList<String>(exportedIds), problems));
+		dirty = true;
+	}
+
+	/**
+	 * @return A value that changes when a type changes.
+	 */
+	public long getVersion()
+	{
+		return counter.get();
+	}
+
+	/**
+	 * Tells the validations in progress that their results may be outdated. The fingerprints
+	 * already recorded notice the change through the modification stamps.
+	 */
+	public void typesChanged(Collection<String> qualifiedNames)
+	{
+		if (qualifiedNames.isEmpty())
+			return;
+		counter.incrementAndGet();
+	}
+
+	/**
+	 * Forgets the digest of the classpath of the project so that it is computed again.
+	 */
+	public void classpathChanged(String projectName)
+	{
+		classpathDigests.remove(projectName);
+	}
+
+	public void remove(IFile file)
+	{
+		if (fingerprints.remove(key(file)) != null)
+			dirty = true;
+	}
+
+	public void remove(IProject project)
+	{
+		classpathDigests.remove(project.getName());
+		String prefix = project.getFullPath().addTrailingSeparator().toString();
+		for (Iterator<String> it = fingerprints.keySet().iterator(); it.hasNext();)
+		{
+			if (it.next().startsWith(prefix))
+			{
+				it.remove();
+				dirty = true;
+			}
+		}
+	}
+
+	public void clear()
+	{
+		classpathDigests.clear();
+		fingerprints.clear();
+		dirty = true;
+	}
+
+	private byte[] digestDependencies(IFile file, Collection<String> types,
+		Collection<String> references, String namespace)
+	{
+		IJavaProject javaProject = JavaCore.create(file.getProject());
+		MessageDigest digest = newDigest();
+		byte[] classpathDigest = getClasspathDigest(javaProject);
+		if (classpathDigest == null)
+			return null;
+		digest.update(classpathDigest);
+		for (String type : new TreeSet<String>(types))
+		{
+			String stamp = getTypeStamp(javaProject, type);
+			if (stamp == null)
+				return null;
+			update(digest, type);
+			update(digest, stamp);
+		}
+		Set<String> namespaces = new TreeSet<String>();
+		if (namespace != null)
+			namespaces.add(namespace);
+		for (String reference : references)
+		{
+			namespaces.add(MapperReferenceGraph.getReferencedNamespace(reference));
+		}
+		MapperNamespaceCache namespaceCache = MapperNamespaceCache.getInstance();
+		for (String ns : namespaces)
+		{
+			update(digest, ns);
+			for (IFile mapperFile : namespaceCache.getFiles(javaProject, ns, null))
+			{
+				update(digest, key(mapperFile));
+				update(digest, String.valueOf(mapperFile.getModificationStamp()));
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * @return The modification stamp of the resource declaring the type or <code>null</code> if
+	 *         the type has unsaved changes. Types in a library are covered by the digest of the
+	 *         classpath.
+	 */
+	private String getTypeStamp(IJavaProject javaProject, String qualifiedName)
+	{
+		try
+		{
+			IType type = javaProject.findType(qualifiedName);
+			if (type == null)
+				return "-";
+			ICompilationUnit compilationUnit = type.getCompilationUnit();
+			if (compilationUnit != null && compilationUnit.hasUnsavedChanges())
+				return null;
+			IResource resource = type.getResource();
+			return resource == null ? "" : String.valueOf(resource.getModificationStamp());
+		}
+		catch (JavaModelException e)
+		{
+			Activator.log(Status.WARNING, "Failed to find type " + qualifiedName, e);
+			return null;
+		}
+	}
+
+	private byte[] getClasspathDigest(IJavaProject javaProject)
+	{
+		String projectName = javaProject.getElementName();
+		byte[] classpathDigest = classpathDigests.get(projectName);
+		if (classpathDigest != null)
+			return classpathDigest;
+		MessageDigest digest = newDigest();
+		try
+		{
+			for (IClasspathEntry entry : javaProject.getResolvedClasspath(true))
+			{
+				IPath path = entry.getPath();
+				update(digest, path.toString());
+				if (entry.getEntryKind() == IClasspathEntry.CPE_LIBRARY)
+				{
+					IResource resource = ResourcesPlugin.getWorkspace().getRoot().findMember(path);
+					long timestamp = resource == null ? path.toFile().lastModified()
+						: resource.getModificationStamp();
+					update(digest, String.valueOf(timestamp));
+				}
+			}
+		}
+		catch (JavaModelException e)
+		{
+			Activator.log(Status.WARNING, "Failed to resolve the classpath of " + projectName, e);
+			return null;
+		}
+		classpathDigest = digest.digest();
+		classpathDigests.put(projectName, classpathDigest);
+		return classpathDigest;
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support it.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void update(MessageDigest digest, String value)
+	{
+		try
+		{
+			digest.update(value.getBytes("UTF-8"));
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		digest.update((byte)0);
+	}
+
+	private String key(IFile file)
+	{
+		return file.getFullPath().toString();
+	}
+
+	public void load(IPath stateLocation)
+	{
+		STATE_FILE.load(stateLocation, new StateFile.Reader()
+		{
+			@Override
+			public void read(DataInputStream in) throws IOException
+			{
+				int count = StateFile.readSize(in);
+				for (int i = 0; i < count; i++)
+				{
+					String path = StateFile.readString(in);
+					fingerprints.put(path, Fingerprint.read(in));
+				}
+				dirty = false;
+			}
+
+			@Override
+			public void reset()
+			{
+				// Mappers will be validated again.
+				fingerprints.clear();
+			}
+		});
+	}
+
+	public void save(IPath stateLocation)
+	{
+		if (!dirty)
+			return;
+		boolean saved = STATE_FILE.save(stateLocation, new StateFile.Writer()
+		{
+			@Override
+			public void write(DataOutputStream out) throws IOException
+			{
+				List<Entry<String, Fingerprint>> snapshot = new ArrayList<Entry<String, Fingerprint>>(
+					fingerprints.entrySet());
+				out.writeInt(snapshot.size());
+				for (Entry<String, Fingerprint> entry : snapshot)
+				{
+					StateFile.writeString(out, entry.getKey());
+					entry.getValue().write(out);
+				}
+			}
+		});
+		if (saved)
+			dirty = false;
+	}
+
+	public static ValidationFingerprints getInstance()
+	{
+		return INSTANCE;
+	}
+
+	private ValidationFingerprints()
+	{
+		super();
+	}
+
+	private static class Fingerprint
+	{
+		private final byte[] contentDigest;
+
+		private final byte[] dependencyDigest;
+
+		private final List<String> types;
+
+		private final List<String> references;
+
+		private final String namespace;
+
+		private final List<String> exportedIds;
+
+		private final List<Problem> problems;
+
+		private Fingerprint(
+			byte[] contentDigest,
+			byte[] dependencyDigest,
+			List<String> types,
+			List<String> references,
+			String namespace,
+			List<String> exportedIds,
+			List<Problem> problems)
+		{
+			this.contentDigest = contentDigest;
+			this.dependencyDigest = dependencyDigest;
+			this.types = types;
+			this.references = references;
+			this.namespace = namespace;
+			this.exportedIds = exportedIds;
+			this.problems = problems;
+		}
+
+		private void write(DataOutputStream out) throws IOException
+		{
+			writeBytes(out, contentDigest);
+			writeBytes(out, dependencyDigest);
+			writeStrings(out, types);
+			writeStrings(out, references);
+			StateFile.writeString(out, namespace);
+			out.writeBoolean(exportedIds != null);
+			if (exportedIds != null)
+				writeStrings(out, exportedIds);
+			out.writeInt(problems.size());
+			for (Problem problem : problems)
+			{
+				problem.write(out);
+			}
+		}
+
+		private static Fingerprint read(DataInputStream in) throws IOException
+		{
+			byte[] contentDigest = readBytes(in);
+			byte[] dependencyDigest = readBytes(in);
+			List<String> types = readStrings(in);
+			List<String> references = readStrings(in);
+			String namespace = StateFile.readString(in);
+			List<String> exportedIds = in.readBoolean() ? readStrings(in) : null;
+			int problemCount = StateFile.readSize(in);
+			List<Problem> problems = new ArrayList<Problem>(Math.min(problemCount, 64));
+			for (int i = 0; i < problemCount; i++)
+			{
+				problems.add(Problem.read(in));
+			}
+			return new Fingerprint(contentDigest, dependencyDigest, types, references, namespace,
+				exportedIds, problems);
+		}
+
+		private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException
+		{
+			out.writeInt(bytes == null ? -1 : bytes.length);
+			if (bytes != null)
+				out.write(bytes);
+		}
+
+		private static byte[] readBytes(DataInputStream in) throws IOException
+		{
+			int length = in.readInt();
+			if (length < 0)
+				return null;
+			// Only digests are written.
+			if (length > 64)
+				throw new IOException("Invalid digest length " + length);
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return bytes;
+		}
+
+		private static void writeStrings(DataOutputStream out, Collection<String> values)
+			throws IOException
+		{
+			out.writeInt(values.size());
+			for (String value : values)
+			{
+				StateFile.writeString(out, value);
+			}
+		}
+
+		private static List<String> readStrings(DataInputStream in) throws IOException
+		{
+			int size = StateFile.readSize(in);
+			// A corrupt size runs into the end of the file rather than out of memory.
+			List<String> values = new ArrayList<String>(Math.min(size, 1024));
+			for (int i = 0; i < size; i++)
+			{
+				String value = StateFile.readString(in);
+				if (value == null)
+					throw new IOException("Unexpected null value");
+				values.add(value);
+			}
+			return Collections.unmodifiableList(values);
+		}
+	}
+
+	/**
+	 * A problem reported by the validation. Attributes other than strings, integers and
+	 * booleans are not kept.
+	 */
+	private static class Problem
+	{
+		private static final byte STRING = 0;
+
+		private static final byte INTEGER = 1;
+
+		private static final byte BOOLEAN = 2;
+
+		private final String markerType;
+
+		private final Map<String, Object> attributes;
+
+		private Problem(String markerType, Map<String, Object> attributes)
+		{
+			this.markerType = markerType;
+			this.attributes = attributes;
+		}
+
+		private ValidatorMessage toMessage(IFile file)
+		{
+			ValidatorMessage message = ValidatorMessage.create(
+				(String)attributes.get(IMarker.MESSAGE), file);
+			message.setType(markerType);
+			for (Entry<String, Object> attribute : attributes.entrySet())
+			{
+				Object value = attribute.getValue();
+				if (value instanceof Integer)
+					message.setAttribute(attribute.getKey(), ((Integer)value).intValue());
+				else if (value instanceof Boolean)
+					message.setAttribute(attribute.getKey(), ((Boolean)value).booleanValue());
+				else
+					message.setAttribute(attribute.getKey(), (String)value);
+			}
+			return message;
+		}
+
+		private static Problem of(ValidatorMessage message)
+		{
+			Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+			for (Object object : message.getAttributes().entrySet())
+			{
+				Entry<?, ?> attribute = (Entry<?, ?>)object;
+				Object value = attribute.getValue();
+				if (value instanceof String || value instanceof Integer || value instanceof Boolean)
+					attributes.put((String)attribute.getKey(), value);
+			}
+			return new Problem(message.getType(), attributes);
+		}
+
+		private void write(DataOutputStream out) throws IOException
+		{
+			StateFile.writeString(out, markerType);
+			out.writeInt(attributes.size());
+			for (Entry<String, Object> attribute : attributes.entrySet())
+			{
+				StateFile.writeString(out, attribute.getKey());
+				Object value = attribute.getValue();
+				if (value instanceof Integer)
+				{
+					out.writeByte(INTEGER);
+					out.writeInt(((Integer)value).intValue());
+				}
+				else if (value instanceof Boolean)
+				{
+					out.writeByte(BOOLEAN);
+					out.writeBoolean(((Boolean)value).booleanValue());
+				}
+				else
+				{
+					out.writeByte(STRING);
+					StateFile.writeString(out, (String)value);
+				}
+			}
+		}
+
+		private static Problem read(DataInputStream in) throws IOException
+		{
+			String markerType = StateFile.readString(in);
+			int size = StateFile.readSize(in);
+			Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+			for (int i = 0; i < size; i++)
+			{
+				String name = StateFile.readString(in);
+				if (name == null)
+					throw new IOException("Unexpected null attribute name");
+				byte valueType = in.readByte();
+				if (valueType == INTEGER)
+					attributes.put(name, Integer.valueOf(in.readInt()));
+				else if (valueType == BOOLEAN)
+					attributes.put(name, Boolean.valueOf(in.readBoolean()));
+				else if (valueType == STRING)
+					attributes.put(name, StateFile.readString(in));
+				else
+					throw new IOException("Invalid attribute type " + valueType + " of " + name);
+			}
+			return new Problem(markerType, attributes);
+		}
+	}
+}
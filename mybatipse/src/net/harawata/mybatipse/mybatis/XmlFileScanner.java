@@ -0,0 +1,266 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.mybatis;
+
+import static net.harawata.mybatipse.MybatipseConstants.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import net.harawata.mybatipse.Activator;
+import net.harawata.mybatipse.mybatis.MapperIndex.Kind;
+import net.harawata.mybatipse.util.SingleFlightLoader;
+import net.harawata.mybatipse.util.SingleFlightLoader.Loader;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Finds MyBatis related XML files of a project in a single pass and keeps the result until
+ * an XML file of the project is added, removed or modified.<br>
+ * Folders matching one of the exclude globs are not descended. If include globs are
+ * specified, only the files under the matching folders are collected. Globs are matched
+ * against the project relative path; <code>*</code> and <code>?</code> do not match '/' while
+ * <code>**</code> does.
+ *
+ * @author Iwao AVE!
+ */
+public class XmlFileScanner
+{
+	private static final XmlFileScanner INSTANCE = new XmlFileScanner();
+
+	private static boolean DEBUG = Activator.getDefault().isDebugging()
+		&& Boolean.parseBoolean(Platform.getDebugOption(DEBUG_MAPPER_DISCOVERY));
+
+	private final Map<String, ScanResult> results = new ConcurrentHashMap<String, ScanResult>();
+
+	private final SingleFlightLoader<String, ScanResult> loader = new SingleFlightLoader<String, ScanResult>();
+
+	public ScanResult scan(IProject project)
+	{
+		return scan(project, null);
+	}
+
+	/**
+	 * @param monitor Checked for cancellation while scanning. May be <code>null</code>.
+	 * @throws OperationCanceledException If the monitor has been canceled.
+	 */
+	public ScanResult scan(final IProject project, final IProgressMonitor monitor)
+	{
+		final String projectName = project.getName();
+		return loader.get(projectName, new Loader<ScanResult>()
+		{
+			@Override
+			public ScanResult getCached()
+			{
+				return results.get(projectName);
+			}
+
+			@Override
+			public ScanResult load()
+			{
+				return doScan(project, monitor);
+			}
+
+			@Override
+			public void publish(ScanResult result)
+			{
+				results.put(projectName, result);
+			}
+		});
+	}
+
+	public void remove(IProject project)
+	{
+		loader.invalidate(project.getName());
+		results.remove(project.getName());
+	}
+
+	public void clear()
+	{
+		loader.invalidateAll();
+		results.clear();
+	}
+
+	private ScanResult doScan(IProject project, final IProgressMonitor monitor)
+	{
+		long start = DEBUG ? System.nanoTime() : 0L;
+		final List<Pattern> includes = compile(Activator.getPreferenceString(project,
+			PREF_SCAN_INCLUDES, ""));
+		final List<Pattern> excludes = compile(Activator.getPreferenceString(project,
+			PREF_SCAN_EXCLUDES, ""));
+		final ScanResult result = new ScanResult();
+		if (!project.isAccessible())
+			return result;
+		try
+		{
+			project.accept(new IResourceProxyVisitor()
+			{
+				@Override
+				public boolean visit(IResourceProxy proxy) throws CoreException
+				{
+					if (monitor != null && monitor.isCanceled())
+						throw new OperationCanceledException();
+					if (proxy.isDerived())
+						return false;
+
+					int type = proxy.getType();
+					if (type == IResource.FOLDER)
+					{
+						return !matches(excludes, proxy);
+					}
+					else if (type == IResource.FILE && proxy.getName().endsWith(".xml"))
+					{
+						if (!includes.isEmpty() && !matches(includes, proxy))
+							return false;
+						IFile file = (IFile)proxy.requestResource();
+						result.add(MapperIndex.getInstance().getKind(file), file);
+					}
+					return true;
+				}
+			}, IContainer.NONE);
+		}
+		catch (CoreException e)
+		{
+			Activator.log(Status.ERROR, "Scanning xml files in " + project.getName() + " failed.",
+				e);
+		}
+		if (DEBUG)
+			Activator.log(Status.INFO, "Scanned " + project.getName() + " in "
+				+ (System.nanoTime() - start) / 1000000L + "ms");
+		return result;
+	}
+
+	private boolean matches(List<Pattern> patterns, IResourceProxy proxy)
+	{
+		String path = proxy.requestFullPath().removeFirstSegments(1).toString();
+		for (Pattern pattern : patterns)
+		{
+			if (pattern.matcher(path).matches())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param globs Comma separated folder globs.
+	 * @return Patterns that match the folders and everything under them.
+	 */
+	static List<Pattern> compile(String globs)
+	{
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		if (globs == null)
+			return patterns;
+		for (String glob : globs.split(","))
+		{
+			glob = glob.trim();
+			while (glob.startsWith("/"))
+				glob = glob.substring(1);
+			while (glob.endsWith("/"))
+				glob = glob.substring(0, glob.length() - 1);
+			if (glob.length() == 0)
+				continue;
+			StringBuilder regex = new StringBuilder();
+			for (int i = 0; i < glob.length(); i++)
+			{
+				char c = glob.charAt(i);
+				if (c == '*')
+				{
+					if (i + 1 < glob.length() && glob.charAt(i + 1) == '*')
+					{
+						i++;
+						if (i + 1 < glob.length() && glob.charAt(i + 1) == '/')
+						{
+							i++;
+							regex.append("(?:.*/)?");
+						}
+						else
+						{
+							regex.append(".*");
+						}
+					}
+					else
+					{
+						regex.append("[^/]*");
+					}
+				}
+				else if (c == '?')
+				{
+					regex.append("[^/]");
+				}
+				else if (Character.isLetterOrDigit(c))
+				{
+					regex.append(c);
+				}
+				else
+				{
+					regex.append('\\').append(c);
+				}
+			}
+			regex.append("(?:/.*)?");
+			patterns.add(Pattern.compile(regex.toString()));
+		}
+		return patterns;
+	}
+
+	public static XmlFileScanner getInstance()
+	{
+		return INSTANCE;
+	}
+
+	private XmlFileScanner()
+	{
+		super();
+	}
+
+	public static class ScanResult
+	{
+		private final Map<Kind, List<IFile>> files = new EnumMap<Kind, List<IFile>>(Kind.class);
+
+		/**
+		 * @return The files of the kind in the order they have been found.
+		 */
+		public List<IFile> getFiles(Kind kind)
+		{
+			List<IFile> list = files.get(kind);
+			return list == null ? Collections.<IFile> emptyList() : Collections
+				.unmodifiableList(list);
+		}
+
+		private void add(Kind kind, IFile file)
+		{
+			if (kind == Kind.NONE)
+				return;
+			List<IFile> list = files.get(kind);
+			if (list == null)
+			{
+				list = new ArrayList<IFile>();
+				files.put(kind, list);
+			}
+			list.add(file);
+		}
+	}
+}
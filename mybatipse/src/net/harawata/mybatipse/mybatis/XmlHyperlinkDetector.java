@@ -19,7 +19,6 @@ import javax.xml.xpath.XPathExpressionException;
 import net.harawata.mybatipse.Activator;
 import net.harawata.mybatipse.hyperlink.ToJavaHyperlink;
 import net.harawata.mybatipse.hyperlink.ToXmlHyperlink;
-import net.harawata.mybatipse.util.XpathUtil;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
@@ -43,9 +42,7 @@ import org.eclipse.wst.sse.core.internal.provisional.text.IStructuredDocumentReg
 import org.eclipse.wst.sse.core.internal.provisional.text.ITextRegion;
 import org.eclipse.wst.sse.core.internal.provisional.text.ITextRegionList;
 import org.eclipse.wst.sse.core.utils.StringUtils;
-import org.eclipse.wst.xml.core.internal.document.ElementImpl;
 import org.eclipse.wst.xml.core.internal.provisional.document.IDOMDocument;
-import org.eclipse.wst.xml.core.internal.provisional.document.IDOMNode;
 import org.eclipse.wst.xml.core.internal.regions.DOMRegionContext;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -147,7 +144,7 @@ public class XmlHyperlinkDetector extends AbstractHyperlinkDetector
 
 	private IHyperlink[] linkToReference(ITextViewer textViewer, IDocument document,
 		Document domDoc, String attrName, String attrValue, Region linkRegion, String targetElement)
-		throws XPathExpressionException, CoreException, IOException
+		throws CoreException, IOException
 	{
 		if (attrValue.indexOf('$') > -1)
 			return null;
@@ -156,13 +153,10 @@ public class XmlHyperlinkDetector extends AbstractHyperlinkDetector
 		if (lastDot == -1)
 		{
 			// Internal reference.
-			Node node = XpathUtil.xpathNode(domDoc, "//" + targetElement + "[@id='" + attrValue
-				+ "']");
-			ElementImpl elem = (ElementImpl)node;
+			Element elem = MapperDocumentIndex.get(domDoc).getElement(targetElement, attrValue);
 			if (elem != null)
 			{
-				IRegion destRegion = new Region(elem.getStartOffset(), elem.getEndOffset()
-					- elem.getStartOffset());
+				IRegion destRegion = MapperDocumentIndex.getRegion(elem);
 				return new IHyperlink[]{
 					new ToXmlHyperlink(textViewer, linkRegion, attrValue, destRegion)
 				};
@@ -177,12 +171,13 @@ public class XmlHyperlinkDetector extends AbstractHyperlinkDetector
 			IFile mapperFile = MapperNamespaceCache.getInstance().get(project, namespace, null);
 
 			IDOMDocument mapperDocument = MybatipseXmlUtil.getMapperDocument(mapperFile);
-			IDOMNode domNode = (IDOMNode)XpathUtil.xpathNode(mapperDocument, "//" + targetElement
-				+ "[@id='" + elementId + "']");
-			if (domNode != null)
+			if (mapperDocument == null)
+				return null;
+			Element elem = MapperDocumentIndex.get(mapperDocument).getElement(targetElement,
+				elementId);
+			if (elem != null)
 			{
-				IRegion destRegion = new Region(domNode.getStartOffset(), domNode.getEndOffset()
-					- domNode.getStartOffset());
+				IRegion destRegion = MapperDocumentIndex.getRegion(elem);
 				return new IHyperlink[]{
 					new ToXmlHyperlink(mapperFile, linkRegion, attrValue, destRegion)
 				};
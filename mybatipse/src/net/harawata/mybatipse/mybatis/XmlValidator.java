@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -26,10 +27,11 @@ import javax.xml.xpath.XPathExpressionException;
 import net.harawata.mybatipse.Activator;
 import net.harawata.mybatipse.bean.BeanPropertyCache;
 import net.harawata.mybatipse.mybatis.JavaMapperUtil.MapperMethodInfo;
-import net.harawata.mybatipse.util.XpathUtil;
+import net.harawata.mybatipse.mybatis.MapperIndex.IndexEntry;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
@@ -81,6 +83,8 @@ public class XmlValidator extends AbstractValidator
 
 	public static final String NAMESPACE_MANDATORY = "namespaceMandatory";
 
+	public static final String DUPLICATE_NAMESPACE = "duplicateNamespace";
+
 	public static final String DEPRECATED = "deprecated";
 
 	private static final List<String> validatableTags = Arrays.asList("id", "idArg", "result",
@@ -88,16 +92,45 @@ public class XmlValidator extends AbstractValidator
 		"include", "cache", "typeAlias", "typeHandler", "objectFactory", "objectWrapperFactory",
 		"plugin", "transactionManager", "mapper", "package", "databaseIdProvider", "foreach");
 
+	private static final Set<String> statementTags = new HashSet<String>(Arrays.asList("select",
+		"insert", "update", "delete"));
+
 	private static final Set<String> validatableTextTags = new HashSet<String>(Arrays.asList(
 		"select", "insert", "update", "delete", "if", "foreach", "when", "otherwise"));
 
 	private static Pattern statementTextPropertyRefPattern = Pattern.compile("[#$]\\{[\\s]*([^,}\\s]*)[\\s]*[,}]");
 
+	/**
+	 * Mapper files referring to ids that have been added or removed by the validated files.
+	 */
+	private final Set<IFile> affectedReferrers = new LinkedHashSet<IFile>();
+
 	public void cleanup(IReporter reporter)
 	{
 		// Nothing to do.
 	}
 
+	@Override
+	public void validationFinishing(IProject project, ValidationState state,
+		IProgressMonitor monitor)
+	{
+		RevalidationQueue.getInstance().addAll(takeAffectedReferrers());
+	}
+
+	/**
+	 * @return Mapper files that should be revalidated because the ids they refer to have been
+	 *         added or removed by the files validated so far. The set is cleared.
+	 */
+	public Set<IFile> takeAffectedReferrers()
+	{
+		synchronized (affectedReferrers)
+		{
+			Set<IFile> referrers = new LinkedHashSet<IFile>(affectedReferrers);
+			affectedReferrers.clear();
+			return referrers;
+		}
+	}
+
 	/**
 	 * Determine if a given file should be validated: Should validate if not derived, not team
 	 * private or not in such folder, is accessible and does not start with a dot. Code copied
@@ -143,7 +176,20 @@ public class XmlValidator extends AbstractValidator
 		{
 			throw new OperationCanceledException();
 		}
+		ValidationFingerprints fingerprints = ValidationFingerprints.getInstance();
+		long version = fingerprints.getVersion();
+		byte[] contentDigest = fingerprints.digestContent(file);
+		if (!hasUnsavedChanges(file)
+			&& fingerprints.restoreIfUnchanged(file, contentDigest, result))
+		{
+			// The problems of the last validation are reported again.
+			return;
+		}
 		IStructuredModel model = null;
+		MapperDocumentIndex documentIndex = null;
+		boolean completed = false;
+		JavaDependencyIndex.getInstance().beginRecording();
+		MapperReferenceGraph.getInstance().beginRecording();
 		try
 		{
 			file.deleteMarkers(MARKER_ID, false, IResource.DEPTH_ZERO);
@@ -153,6 +199,9 @@ public class XmlValidator extends AbstractValidator
 			NodeList nodes = domDoc.getChildNodes();
 
 			IJavaProject project = JavaCore.create(file.getProject());
+			String namespace = MybatipseXmlUtil.getNamespace(domDoc);
+			JavaDependencyIndex.record(namespace);
+			documentIndex = MapperDocumentIndex.get(domDoc);
 
 			for (int k = 0; k < nodes.getLength(); k++)
 			{
@@ -160,9 +209,10 @@ public class XmlValidator extends AbstractValidator
 				if (child instanceof IDOMElement)
 				{
 					validateElement(project, (IDOMElement)child, file, domDoc, reporter, result,
-						MybatipseXmlUtil.getNamespace(domDoc), null, null, null);
+						namespace, null);
 				}
 			}
+			completed = true;
 		}
 		catch (Exception e)
 		{
@@ -170,6 +220,24 @@ public class XmlValidator extends AbstractValidator
 		}
 		finally
 		{
+			if (completed)
+				JavaDependencyIndex.getInstance().endRecording(file);
+			else
+				JavaDependencyIndex.getInstance().cancelRecording();
+			Set<IFile> referrers = MapperReferenceGraph.getInstance().endRecording(file,
+				documentIndex);
+			// Markers of an unsaved editor content do not match the file.
+			if (completed && !model.isDirty())
+				fingerprints.put(file, contentDigest, version, result.getMessages());
+			else
+				fingerprints.remove(file);
+			if (!referrers.isEmpty())
+			{
+				synchronized (affectedReferrers)
+				{
+					affectedReferrers.addAll(referrers);
+				}
+			}
 			if (model != null)
 			{
 				model.releaseFromRead();
@@ -177,10 +245,25 @@ public class XmlValidator extends AbstractValidator
 		}
 	}
 
+	private boolean hasUnsavedChanges(IFile file)
+	{
+		IStructuredModel model = StructuredModelManager.getModelManager().getExistingModelForRead(
+			file);
+		if (model == null)
+			return false;
+		try
+		{
+			return model.isDirty();
+		}
+		finally
+		{
+			model.releaseFromRead();
+		}
+	}
+
 	private void validateElement(IJavaProject project, IDOMElement element, IFile file,
 		IDOMDocument doc, IReporter reporter, ValidationResult result, String namespace,
-		Node statementNode, String forEachItem, String forEachType) throws JavaModelException,
-		XPathExpressionException
+		StatementContext statement) throws JavaModelException, XPathExpressionException
 	{
 		if ((reporter != null) && (reporter.isCancelled() == true))
 		{
@@ -190,6 +273,10 @@ public class XmlValidator extends AbstractValidator
 			return;
 
 		String tagName = element.getNodeName();
+		if (statementTags.contains(tagName) && element.hasAttribute("id"))
+		{
+			statement = new StatementContext(project, namespace, element.getAttribute("id"));
+		}
 
 		if (validatableTags.contains(tagName))
 		{
@@ -216,22 +303,18 @@ public class XmlValidator extends AbstractValidator
 				}
 				else if ("collection".equals(attrName) && "foreach".equals(tagName))
 				{
-					forEachType = validateForEachCollection(project, attr, file, doc, reporter, result,
-						namespace, statementNode);
-					if (forEachType != null)
+					String forEachType = validateForEachCollection(project, attr, file, doc, result,
+						statement);
+					Node namedItem = attrs.getNamedItem("item");
+					if (forEachType != null && namedItem != null)
 					{
-						Node namedItem = attrs.getNamedItem("item");
-						if (namedItem != null)
-						{
-							forEachItem = namedItem.getNodeValue();
-						}
+						statement = statement.withItem(namedItem.getNodeValue(), forEachType);
 					}
 				}
-				else if ("id".equals(attrName)
-					&& ("select".equals(tagName) || "update".equals(tagName) || "insert".equals(tagName) || "delete".equals(tagName)))
+				else if ("id".equals(attrName) && statementTags.contains(tagName))
 				{
-					statementNode = element;
-					validateStatementId(element, file, doc, result, project, attr, attrValue, namespace);
+					validateStatementId(file, doc, result, project, attr, attrValue, namespace,
+						statement);
 				}
 				else if ("resultMap".equals(attrName) || "resultMap".equals(attrName))
 				{
@@ -247,7 +330,7 @@ public class XmlValidator extends AbstractValidator
 				}
 				else if ("namespace".equals(attrName))
 				{
-					validateNamespace(file, doc, result, attr, attrValue);
+					validateNamespace(project, file, doc, result, attr, attrValue, reporter);
 				}
 				else if ("parameterMap".equals(tagName))
 				{
@@ -268,117 +351,75 @@ public class XmlValidator extends AbstractValidator
 			if (child instanceof IDOMElement)
 			{
 				validateElement(project, (IDOMElement)child, file, doc, reporter, result, namespace,
-					statementNode, forEachItem, forEachType);
+					statement);
 			}
 			else if (hasText && child instanceof IDOMText)
 			{
-				validateTextMayContainPropertyRefs(project, (IDOMText)child, file, doc, reporter,
-					result, namespace, statementNode, forEachItem, forEachType);
+				validateTextMayContainPropertyRefs(project, (IDOMText)child, file, doc, result,
+					statement);
 			}
 		}
 	}
 
 	private String validateForEachCollection(IJavaProject project, IDOMAttr collectionAttr,
-		IFile file, IDOMDocument doc, IReporter reporter, ValidationResult result,
-		String mapperFqn, Node statementNode)
+		IFile file, IDOMDocument doc, ValidationResult result, StatementContext statement)
 	{
-		if (statementNode != null)
-		{
-			// found enclosing statement node
-			String statementId = null;
-			NamedNodeMap statementAttrs = statementNode.getAttributes();
-			for (int i = 0; i < statementAttrs.getLength(); i++)
-			{
-				Node attr = statementAttrs.item(i);
-				String attrName = attr.getNodeName();
-				if ("id".equals(attrName))
-					statementId = attr.getNodeValue();
-			}
+		if (statement == null || statement.getParams() == null)
+			return null;
 
-			if (statementId != null && !statementId.isEmpty())
-			{
-				// found statmenet id, check method
+		String forEachType = validatePropertyRef(project, statement, file, doc, result,
+			collectionAttr.getValueRegionStartOffset(), collectionAttr.getNodeValue(), 0);
+		if (forEachType == null)
+			return null;
+		if (forEachType.endsWith("[]"))
+			forEachType = forEachType.substring(0, forEachType.length() - 2);
+		else if (forEachType.startsWith("java.util.List<"))
+			forEachType = forEachType.substring(15, forEachType.length() - 1);
+		return forEachType;
+	}
 
-				final List<MapperMethodInfo> methodInfos = new ArrayList<MapperMethodInfo>();
-				JavaMapperUtil.findMapperMethod(methodInfos, project, mapperFqn, statementId, true,
-					true);
+	private void validateTextMayContainPropertyRefs(IJavaProject project, IDOMText child,
+		IFile file, IDOMDocument doc, ValidationResult result, StatementContext statement)
+	{
+		if (statement == null || statement.getParams() == null)
+			return;
 
-				if (methodInfos.size() > 0)
-				{
-					// found method, can validate
-					String forEachType = validatePropertyRef(project, methodInfos.get(0).getParams(),
-						mapperFqn + "." + statementId, file, doc, result,
-						collectionAttr.getValueRegionStartOffset(), collectionAttr.getNodeValue(), 0, null,
-						null);
-
-					if (forEachType.endsWith("[]"))
-						forEachType = forEachType.substring(0, forEachType.length() - 2);
-					else if (forEachType.startsWith("java.util.List<"))
-						forEachType = forEachType.substring(15, forEachType.length() - 1);
-					return forEachType;
-				}
-			}
+		String textContent = child.getTextContent();
+		int startOffset = child.getStartStructuredDocumentRegion().getStartOffset();
+		Matcher matcher = statementTextPropertyRefPattern.matcher(textContent);
+		while (matcher.find())
+		{
+			validatePropertyRef(project, statement, file, doc, result, startOffset,
+				matcher.group(1), matcher.start(1));
 		}
-		return null;
 	}
 
-	private void validateTextMayContainPropertyRefs(IJavaProject project, IDOMText child,
-		IFile file, IDOMDocument doc, IReporter reporter, ValidationResult result,
-		String mapperFqn, Node statementNode, String forEachItem, String forEachType)
+	/**
+	 * @return The type of the property or <code>null</code> if it cannot be resolved.
+	 */
+	private String validatePropertyRef(IJavaProject project, StatementContext statement,
+		IFile file, IDOMDocument doc, ValidationResult result, int startOffset, String property,
+		int propertyStartOffset)
 	{
-		if (statementNode != null)
+		PropertyRef ref = statement.propertyRefs.get(property);
+		if (ref == null)
 		{
-			// found enclosing statement node
-			String statementId = null;
-			NamedNodeMap statementAttrs = statementNode.getAttributes();
-			for (int i = 0; i < statementAttrs.getLength(); i++)
-			{
-				Node attr = statementAttrs.item(i);
-				String attrName = attr.getNodeName();
-				if ("id".equals(attrName))
-					statementId = attr.getNodeValue();
-			}
-
-			if (statementId != null && !statementId.isEmpty())
-			{
-				// found statmenet id, check method
-				final List<MapperMethodInfo> methodInfos = new ArrayList<MapperMethodInfo>();
-				JavaMapperUtil.findMapperMethod(methodInfos, project, mapperFqn, statementId, true,
-					true);
-
-				if (methodInfos.size() > 0)
-				{
-					// found method, can validate
-					String textContent = child.getTextContent();
-					int startOffset = child.getStartStructuredDocumentRegion().getStartOffset();
-					Matcher matcher = statementTextPropertyRefPattern.matcher(textContent);
-					Map<String, String> paramMap = methodInfos.get(0).getParams();
-					if (forEachItem != null && forEachType != null)
-					{
-						paramMap = new HashMap<String, String>(paramMap);
-						paramMap.put(forEachItem, forEachType);
-					}
-					while (matcher.find())
-					{
-						String property = matcher.group(1);
-						int propertyStartOffset = matcher.start(1);
-						validatePropertyRef(project, paramMap, mapperFqn + "." + statementId, file, doc,
-							result, startOffset, property, propertyStartOffset, forEachItem, forEachType);
-					}
-				}
-			}
+			ref = resolvePropertyRef(project, statement.getParams(), statement.getMethodName(),
+				property);
+			statement.propertyRefs.put(property, ref);
+		}
+		if (ref.message != null)
+		{
+			addMarker(result, file, doc.getStructuredDocument(), startOffset + propertyStartOffset,
+				property.length(), ref.errorValue, MISSING_TYPE, IMarker.SEVERITY_ERROR,
+				IMarker.PRIORITY_HIGH, ref.message);
 		}
+		return ref.type;
 	}
 
-	private String validatePropertyRef(IJavaProject project, Map<String, String> paramMap,
-		String mapperMethod, IFile file, IDOMDocument doc, ValidationResult result,
-		int startOffset, String property, int propertyStartOffset, String forEachItem,
-		String forEachType)
+	private PropertyRef resolvePropertyRef(IJavaProject project, Map<String, String> paramMap,
+		String mapperMethod, String property)
 	{
-		int propertyLength = property.length();
-
-		String propertyType = null;
-
 		if (paramMap.size() == 1)
 		{
 			// If there is only one parameter with no @Param,
@@ -393,22 +434,15 @@ public class XmlValidator extends AbstractValidator
 			{
 				matchProperty = matchProperty.substring(0, matchProperty.length() - 3);
 			}
-			propertyType = fields.get(matchProperty);
-			if (propertyType == null)
+			String propertyType = fields.get(matchProperty);
+			if (propertyType == null && !(paramName.equals("param1") && lastDot < 0))
 			{
-				if (paramName.equals("param1") && lastDot < 0)
-				{
-					// allow anything: non-named parameter, any reference can be resolved
-				}
-				else
-				{
-					// not valid property
-					addMarker(result, file, doc.getStructuredDocument(), startOffset
-						+ propertyStartOffset, propertyLength, property, MISSING_TYPE,
-						IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Property '" + property
-							+ "' not found in class " + paramType);
-				}
+				// not valid property
+				// (non-named parameter allows any reference without a dot)
+				return new PropertyRef(null, property, "Property '" + property
+					+ "' not found in class " + paramType);
 			}
+			return new PropertyRef(propertyType, null, null);
 		}
 		else if (paramMap.size() > 1)
 		{
@@ -419,63 +453,71 @@ public class XmlValidator extends AbstractValidator
 				{
 					property = property.substring(0, property.length() - 3);
 				}
-				propertyType = paramMap.get(property);
+				String propertyType = paramMap.get(property);
 				if (propertyType == null)
 				{
 					// not valid parameter
-					addMarker(result, file, doc.getStructuredDocument(), startOffset
-						+ propertyStartOffset, propertyLength, property, MISSING_TYPE,
-						IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Parameter '" + property
-							+ "' not found as @Param in method " + mapperMethod);
+					return new PropertyRef(null, property, "Parameter '" + property
+						+ "' not found as @Param in method " + mapperMethod);
 				}
+				return new PropertyRef(propertyType, null, null);
 			}
-			else
+
+			String paramName = property.substring(0, dotPos);
+			String paramType = paramMap.get(paramName);
+			if (paramType == null)
 			{
-				String paramName = property.substring(0, dotPos);
-				propertyType = paramMap.get(paramName);
-				if (propertyType == null)
-				{
-					// not valid parameter
-					addMarker(result, file, doc.getStructuredDocument(), startOffset
-						+ propertyStartOffset, propertyLength, property, MISSING_TYPE,
-						IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Parameter '" + paramName
-							+ "' not found as @Param in method " + mapperMethod);
-				}
-				else
-				{
-					// check type
-					property = property.substring(dotPos + 1);
-					Map<String, String> fields = BeanPropertyCache.searchFields(project, propertyType,
-						property, true, -1, true);
-					int lastDot = property.lastIndexOf('.');
-					String matchProperty = lastDot < 0 ? property : property.substring(lastDot + 1);
-					if (matchProperty.endsWith("[0]"))
-					{
-						matchProperty = matchProperty.substring(0, matchProperty.length() - 3);
-					}
-					propertyType = fields.get(matchProperty);
-					if (propertyType == null)
-					{
-						// not valid property
-						addMarker(result, file, doc.getStructuredDocument(), startOffset
-							+ propertyStartOffset, propertyLength, property, MISSING_TYPE,
-							IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Property '" + property
-								+ "' not found in class " + propertyType);
-					}
-				}
+				// not valid parameter
+				return new PropertyRef(null, property, "Parameter '" + paramName
+					+ "' not found as @Param in method " + mapperMethod);
+			}
+			// check type
+			property = property.substring(dotPos + 1);
+			Map<String, String> fields = BeanPropertyCache.searchFields(project, paramType,
+				property, true, -1, true);
+			int lastDot = property.lastIndexOf('.');
+			String matchProperty = lastDot < 0 ? property : property.substring(lastDot + 1);
+			if (matchProperty.endsWith("[0]"))
+			{
+				matchProperty = matchProperty.substring(0, matchProperty.length() - 3);
+			}
+			String propertyType = fields.get(matchProperty);
+			if (propertyType == null)
+			{
+				// not valid property
+				return new PropertyRef(null, property, "Property '" + property
+					+ "' not found in class " + paramType);
 			}
+			return new PropertyRef(propertyType, null, null);
 		}
-
-		return propertyType;
+		return new PropertyRef(null, null, null);
 	}
 
-	private void validateNamespace(IFile file, IDOMDocument doc, ValidationResult result,
-		IDOMAttr attr, String attrValue)
+	private void validateNamespace(IJavaProject project, IFile file, IDOMDocument doc,
+		ValidationResult result, IDOMAttr attr, String attrValue, IReporter reporter)
 	{
 		if (attrValue == null || attrValue.length() == 0)
 		{
 			addMarker(result, file, doc.getStructuredDocument(), attr, NAMESPACE_MANDATORY,
 				IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Namespace must be specified.");
+			return;
+		}
+		Set<IFile> files = MapperNamespaceCache.getInstance().getFiles(project, attrValue,
+			reporter);
+		if (files.size() > 1 && files.contains(file))
+		{
+			StringBuilder others = new StringBuilder();
+			for (IFile other : files)
+			{
+				if (other.equals(file))
+					continue;
+				if (others.length() > 0)
+					others.append(", ");
+				others.append(other.getFullPath());
+			}
+			addMarker(result, file, doc.getStructuredDocument(), attr, DUPLICATE_NAMESPACE,
+				IMarker.SEVERITY_WARNING, IMarker.PRIORITY_HIGH, "Namespace='" + attrValue
+					+ "' is also declared in " + others + ".");
 		}
 	}
 
@@ -522,68 +564,57 @@ public class XmlValidator extends AbstractValidator
 		ValidationResult result, IDOMAttr attr, String attrValue, String qualifiedName,
 		String targetElement, IReporter reporter) throws JavaModelException
 	{
-		try
-		{
-			if (attrValue.indexOf('$') > -1)
-				return;
+		if (attrValue.indexOf('$') > -1)
+			return;
 
-			if (attrValue.indexOf('.') == -1)
+		if (attrValue.indexOf('.') == -1)
+		{
+			// Internal reference
+			if ("select".equals(targetElement))
 			{
-				// Internal reference
-				if ("select".equals(targetElement))
-				{
-					if (mapperMethodExists(project, qualifiedName, attrValue))
-					{
-						return;
-					}
-				}
-				String xpath = "count(//" + targetElement + "[@id='" + attrValue + "']) > 0";
-				if (!XpathUtil.xpathBool(doc, xpath))
+				if (mapperMethodExists(project, qualifiedName, attrValue))
 				{
-					addMarker(result, file, doc.getStructuredDocument(), attr, MISSING_SQL,
-						IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, targetElement + " with id='"
-							+ attrValue + "' not found.");
+					return;
 				}
 			}
-			else
+			if (!MapperDocumentIndex.get(doc).contains(targetElement, attrValue))
 			{
-				// External reference
-				int lastDot = attrValue.lastIndexOf('.');
-				String namespace = attrValue.substring(0, lastDot);
-				String statementId = attrValue.substring(lastDot + 1);
-				if ("select".equals(targetElement)
-					&& mapperMethodExists(project, namespace, statementId))
-				{
-					return;
-				}
-				IFile mapperFile = MapperNamespaceCache.getInstance().get(project, namespace, reporter);
-				if (mapperFile == null)
-				{
-					addMarker(result, file, doc.getStructuredDocument(), attr, MISSING_NAMESPACE,
-						IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Namespace='" + namespace
-							+ "' not found.");
-				}
-				else
-				{
-					String xpath = "count(//" + targetElement + "[@id='" + statementId + "']) > 0";
-					if (!isElementExists(mapperFile, xpath))
-					{
-						addMarker(result, file, doc.getStructuredDocument(), attr, MISSING_SQL,
-							IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, targetElement + " with id='"
-								+ attrValue + "' not found.");
-					}
-				}
+				addMarker(result, file, doc.getStructuredDocument(), attr, MISSING_SQL,
+					IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, targetElement + " with id='"
+						+ attrValue + "' not found.");
 			}
 		}
-		catch (XPathExpressionException e)
+		else
 		{
-			Activator.log(Status.ERROR, "Error while searching sql with id = " + attrValue, e);
+			// External reference
+			int lastDot = attrValue.lastIndexOf('.');
+			String namespace = attrValue.substring(0, lastDot);
+			String statementId = attrValue.substring(lastDot + 1);
+			MapperReferenceGraph.record(namespace, targetElement, statementId);
+			if ("select".equals(targetElement)
+				&& mapperMethodExists(project, namespace, statementId))
+			{
+				return;
+			}
+			IFile mapperFile = MapperNamespaceCache.getInstance().get(project, namespace, reporter);
+			if (mapperFile == null)
+			{
+				addMarker(result, file, doc.getStructuredDocument(), attr, MISSING_NAMESPACE,
+					IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Namespace='" + namespace
+						+ "' not found.");
+			}
+			else if (!isElementExists(mapperFile, targetElement, statementId))
+			{
+				addMarker(result, file, doc.getStructuredDocument(), attr, MISSING_SQL,
+					IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, targetElement + " with id='"
+						+ attrValue + "' not found.");
+			}
 		}
 	}
 
-	private void validateStatementId(IDOMElement element, IFile file, IDOMDocument doc,
-		ValidationResult result, IJavaProject project, IDOMAttr attr, String attrValue,
-		String qualifiedName) throws JavaModelException, XPathExpressionException
+	private void validateStatementId(IFile file, IDOMDocument doc, ValidationResult result,
+		IJavaProject project, IDOMAttr attr, String attrValue, String qualifiedName,
+		StatementContext statement) throws JavaModelException
 	{
 		if (attrValue == null)
 		{
@@ -591,7 +622,7 @@ public class XmlValidator extends AbstractValidator
 		}
 
 		IType mapperType = project.findType(qualifiedName);
-		if (mapperType != null && !mapperMethodExists(project, qualifiedName, attrValue))
+		if (mapperType != null && statement.getMethodCount() != 1)
 		{
 			addMarker(result, file, doc.getStructuredDocument(), attr, MISSING_STATEMENT_METHOD,
 				IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Method '" + attrValue
@@ -617,11 +648,13 @@ public class XmlValidator extends AbstractValidator
 		{
 			return;
 		}
+		JavaDependencyIndex.record(qualifiedName);
 		IType type = project.findType(qualifiedName);
 		if (type == null)
 		{
 			qualifiedName = TypeAliasCache.getInstance().resolveAlias(project, qualifiedName,
 				reporter);
+			JavaDependencyIndex.record(qualifiedName);
 			if (qualifiedName != null)
 				type = project.findType(qualifiedName);
 		}
@@ -657,9 +690,14 @@ public class XmlValidator extends AbstractValidator
 		IDOMAttr attr, String qualifiedName, ValidationResult result, IReporter reporter)
 		throws JavaModelException
 	{
-		if (!MybatipseXmlUtil.isDefaultTypeAlias(qualifiedName)
-			&& project.findType(qualifiedName) == null
-			&& TypeAliasCache.getInstance().resolveAlias(project, qualifiedName, reporter) == null)
+		if (MybatipseXmlUtil.isDefaultTypeAlias(qualifiedName))
+			return;
+		JavaDependencyIndex.record(qualifiedName);
+		if (project.findType(qualifiedName) != null)
+			return;
+		String resolved = TypeAliasCache.getInstance().resolveAlias(project, qualifiedName, reporter);
+		JavaDependencyIndex.record(resolved);
+		if (resolved == null)
 		{
 			addMarker(result, file, doc.getStructuredDocument(), attr, MISSING_TYPE,
 				IMarker.SEVERITY_ERROR, IMarker.PRIORITY_HIGH, "Class/TypeAlias '" + qualifiedName
@@ -704,8 +742,12 @@ public class XmlValidator extends AbstractValidator
 		result.add(marker);
 	}
 
-	private boolean isElementExists(IFile file, String xpath)
+	private boolean isElementExists(IFile file, String tagName, String id)
 	{
+		IndexEntry entry = MapperIndex.getInstance().get(file);
+		if (entry != null && entry.hasIds())
+			return entry.containsId(tagName, id);
+
 		IStructuredModel model = null;
 		try
 		{
@@ -713,7 +755,7 @@ public class XmlValidator extends AbstractValidator
 			IDOMModel domModel = (IDOMModel)model;
 			IDOMDocument domDoc = domModel.getDocument();
 
-			return XpathUtil.xpathBool(domDoc, xpath);
+			return MapperDocumentIndex.get(domDoc).contains(tagName, id);
 		}
 		catch (Exception e)
 		{
@@ -729,4 +771,85 @@ public class XmlValidator extends AbstractValidator
 		}
 		return false;
 	}
+
+	/**
+	 * Shared by the nodes in a statement element, so that the mapper method is looked up once
+	 * per statement and each property reference is resolved once.<br>
+	 * A <code>foreach</code> element gets its own context with the item added to the parameters.
+	 */
+	private static class StatementContext
+	{
+		private final String methodName;
+
+		private final int methodCount;
+
+		/**
+		 * <code>null</code> if the mapper method is not found.
+		 */
+		private final Map<String, String> params;
+
+		private final Map<String, PropertyRef> propertyRefs = new HashMap<String, PropertyRef>();
+
+		private StatementContext(IJavaProject project, String namespace, String statementId)
+		{
+			super();
+			this.methodName = namespace + "." + statementId;
+			List<MapperMethodInfo> methodInfos = new ArrayList<MapperMethodInfo>();
+			if (statementId.length() > 0)
+				JavaMapperUtil.findMapperMethod(methodInfos, project, namespace, statementId, true,
+					true);
+			this.methodCount = methodInfos.size();
+			this.params = methodInfos.isEmpty() ? null : methodInfos.get(0).getParams();
+		}
+
+		private StatementContext(StatementContext parent, Map<String, String> params)
+		{
+			super();
+			this.methodName = parent.methodName;
+			this.methodCount = parent.methodCount;
+			this.params = params;
+		}
+
+		private StatementContext withItem(String item, String itemType)
+		{
+			Map<String, String> newParams = new HashMap<String, String>(params);
+			newParams.put(item, itemType);
+			return new StatementContext(this, newParams);
+		}
+
+		private String getMethodName()
+		{
+			return methodName;
+		}
+
+		private int getMethodCount()
+		{
+			return methodCount;
+		}
+
+		private Map<String, String> getParams()
+		{
+			return params;
+		}
+	}
+
+	private static class PropertyRef
+	{
+		private final String type;
+
+		private final String errorValue;
+
+		/**
+		 * <code>null</code> if the reference is valid.
+		 */
+		private final String message;
+
+		private PropertyRef(String type, String errorValue, String message)
+		{
+			super();
+			this.type = type;
+			this.errorValue = errorValue;
+			this.message = message;
+		}
+	}
 }
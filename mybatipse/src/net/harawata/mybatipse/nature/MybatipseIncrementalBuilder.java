@@ -14,29 +14,52 @@ package net.harawata.mybatipse.nature;
 import static net.harawata.mybatipse.MybatipseConstants.*;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import net.harawata.mybatipse.Activator;
 import net.harawata.mybatipse.bean.BeanPropertyCache;
 import net.harawata.mybatipse.mybatis.ConfigRegistry;
+import net.harawata.mybatipse.mybatis.JavaDependencyIndex;
+import net.harawata.mybatipse.mybatis.MapperIndex;
+import net.harawata.mybatipse.mybatis.MapperIndex.Kind;
+import net.harawata.mybatipse.mybatis.MapperMethodCache;
 import net.harawata.mybatipse.mybatis.MapperNamespaceCache;
+import net.harawata.mybatipse.mybatis.MapperReferenceGraph;
+import net.harawata.mybatipse.mybatis.MapperTypePreloader;
 import net.harawata.mybatipse.mybatis.TypeAliasCache;
+import net.harawata.mybatipse.mybatis.ValidationFingerprints;
+import net.harawata.mybatipse.mybatis.XmlFileScanner;
+import net.harawata.mybatipse.mybatis.XmlFileScanner.ScanResult;
 import net.harawata.mybatipse.mybatis.XmlValidator;
 
-import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
-import org.eclipse.core.resources.IResourceProxy;
-import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.content.IContentDescription;
-import org.eclipse.core.runtime.content.IContentType;
+import org.eclipse.core.runtime.SubProgressMonitor;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.wst.validation.ValidationState;
 
 /**
@@ -46,71 +69,103 @@ public class MybatipseIncrementalBuilder extends IncrementalProjectBuilder
 {
 	public static final String BUILDER_ID = "net.harawata.mybatipse.MapperValidationBuilder";
 
-	private int currentWork;
+	/**
+	 * How long a canceled build waits for the validations that are still running.
+	 */
+	private static final long WORKER_WAIT_MILLIS = 5000L;
 
 	@Override
 	protected IProject[] build(int kind, Map<String, String> args, IProgressMonitor monitor)
 		throws CoreException
 	{
-		// Mybatipse needs to validate all the mapper files, basically.
-		validateAllMappers(monitor);
+		// The caches must reflect the XML files changed before this build.
+		Activator activator = Activator.getDefault();
+		if (activator != null && activator.getResourceChangeListener() != null
+			&& !activator.getResourceChangeListener().processXmlChanges(monitor))
+			throw new OperationCanceledException();
+
+		IResourceDelta delta = null;
+		if (kind == INCREMENTAL_BUILD || kind == AUTO_BUILD)
+			delta = getDelta(getProject());
+
+		if (delta == null)
+		{
+			// Full/clean build or no previous state is available.
+			validateAllMappers(monitor);
+		}
+		else
+		{
+			validateChangedFiles(delta, monitor);
+		}
 		return null;
 	}
 
-	private void validateAllMappers(final IProgressMonitor monitor)
+	private void validateChangedFiles(IResourceDelta delta, final IProgressMonitor monitor)
+		throws CoreException
 	{
-		final int totalWork = countResources();
-		monitor.beginTask("Mybatipse validation", totalWork);
-		currentWork = 1;
-
-		final XmlValidator validator = new XmlValidator();
-		try
+		final Set<IFile> targets = new LinkedHashSet<IFile>();
+		final boolean[] configChanged = new boolean[1];
+		delta.accept(new IResourceDeltaVisitor()
 		{
-			getProject().accept(new IResourceProxyVisitor()
+			@Override
+			public boolean visit(IResourceDelta delta) throws CoreException
 			{
-				private MessageFormat pattern = new MessageFormat("Validating {0}... ({1}/{2})");
-
-				@Override
-				public boolean visit(IResourceProxy proxy) throws CoreException
+				IResource resource = delta.getResource();
+				if (resource.isDerived())
+					return false;
+				if (resource.getType() != IResource.FILE)
+					return true;
+				if (!"xml".equals(resource.getFileExtension()))
+					return false;
+				if (delta.getKind() == IResourceDelta.REMOVED)
 				{
-					if (monitor.isCanceled())
-					{
-						forgetLastBuiltState();
-						throw new OperationCanceledException();
-					}
+					// Mappers referring to the removed one should report the missing ids.
+					IFile file = (IFile)resource;
+					ConfigRegistry.getInstance().remove(file.getProject(), file);
+					MapperNamespaceCache.getInstance().remove(file.getProject().getName(), file);
+					MapperIndex.getInstance().remove(file);
+					JavaDependencyIndex.getInstance().remove(file);
+					ValidationFingerprints.getInstance().remove(file);
+					targets.addAll(MapperReferenceGraph.getInstance().remove(file));
+					return false;
+				}
+				if (delta.getKind() == IResourceDelta.CHANGED
+					&& (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED | IResourceDelta.ENCODING)) == 0)
+					return false;
 
-					monitor.subTask(pattern.format(new Object[]{
-						proxy.getName(), currentWork, totalWork
-					}));
+				IFile file = (IFile)resource;
+				Kind kind = MapperIndex.getInstance().getKind(file);
+				if (kind == Kind.MAPPER)
+					targets.add(file);
+				else if (kind == Kind.CONFIG || kind == Kind.SPRING_CONFIG)
+					configChanged[0] = true;
+				return false;
+			}
+		});
 
-					if (proxy.isDerived())
-						return false;
-
-					if (proxy.getType() == IResource.FILE && proxy.getName().endsWith(".xml"))
-					{
-						IFile file = (IFile)proxy.requestResource();
-						IContentDescription contentDesc = file.getContentDescription();
-						if (contentDesc != null)
-						{
-							IContentType contentType = contentDesc.getContentType();
-							if (contentType != null
-								&& (contentType.isKindOf(configContentType) || contentType.isKindOf(mapperContentType)))
-							{
-								validator.validate(file, IResourceDelta.NO_CHANGE, new ValidationState(),
-									monitor);
-							}
-						}
-					}
-
-					monitor.worked(1);
-					currentWork++;
-					return true;
-				}
-			}, IContainer.NONE);
+		if (configChanged[0])
+		{
+			// Type aliases and settings may affect all the mappers.
+			validateAllMappers(monitor);
+			return;
 		}
-		catch (CoreException e)
+		if (targets.isEmpty())
+			return;
+
+		XmlValidator validator = new XmlValidator();
+		Set<IFile> validated = new HashSet<IFile>();
+		Collection<IFile> files = targets;
+		monitor.beginTask("Mybatipse validation", IProgressMonitor.UNKNOWN);
+		try
 		{
-			Activator.log(Status.ERROR, e.getMessage(), e);
+			// Direct referrers of changed ids are validated in the following round.
+			while (!files.isEmpty())
+			{
+				validated.addAll(files);
+				validateFiles(validator, files, monitor);
+				files = validator.takeAffectedReferrers();
+				files.removeAll(validated);
+			}
 		}
 		finally
 		{
@@ -118,75 +173,224 @@ public class MybatipseIncrementalBuilder extends IncrementalProjectBuilder
 		}
 	}
 
-	@Override
-	protected void clean(IProgressMonitor monitor) throws CoreException
+	private void validateAllMappers(IProgressMonitor monitor)
 	{
 		try
 		{
-			IProject project = getProject();
-			project.accept(new IResourceProxyVisitor()
+			ScanResult result = scan(monitor);
+			List<IFile> mapperFiles = result.getFiles(Kind.MAPPER);
+			List<IFile> files = new ArrayList<IFile>(result.getFiles(Kind.CONFIG));
+			files.addAll(mapperFiles);
+
+			monitor.beginTask("Mybatipse validation", files.size() + 1);
+			IJavaProject javaProject = JavaCore.create(getProject());
+			if (javaProject.exists())
+			{
+				// Resolve the Java types used in the mappers in one batch.
+				monitor.subTask("Resolving Java types...");
+				MapperTypePreloader.preload(javaProject, mapperFiles, new SubProgressMonitor(
+					monitor, 1));
+				checkCanceled(monitor);
+			}
+			XmlValidator validator = new XmlValidator();
+			validateFiles(validator, files, monitor);
+			// Every mapper has been validated.
+			validator.takeAffectedReferrers();
+		}
+		finally
+		{
+			monitor.done();
+		}
+	}
+
+	private ScanResult scan(IProgressMonitor monitor)
+	{
+		try
+		{
+			return XmlFileScanner.getInstance().scan(getProject(), monitor);
+		}
+		catch (OperationCanceledException e)
+		{
+			forgetLastBuiltState();
+			throw e;
+		}
+	}
+
+	/**
+	 * Validates the files on the shared pool of worker threads, running up to the configured
+	 * number of them at a time.<br>
+	 * Progress is reported and cancellation is checked on the builder thread only.
+	 */
+	private void validateFiles(final XmlValidator validator, Collection<IFile> files,
+		final IProgressMonitor monitor)
+	{
+		MessageFormat pattern = new MessageFormat("Validating {0}... ({1}/{2})");
+		int totalWork = files.size();
+		int current = 1;
+		int parallelism = Math.min(getParallelism(), totalWork);
+		if (parallelism <= 1)
+		{
+			for (IFile file : files)
+			{
+				checkCanceled(monitor);
+				monitor.subTask(pattern.format(new Object[]{
+					file.getName(), current++, totalWork
+				}));
+				validateFile(validator, file, monitor);
+				monitor.worked(1);
+			}
+			return;
+		}
+
+		final IProgressMonitor workerMonitor = new NullProgressMonitor()
+		{
+			@Override
+			public boolean isCanceled()
+			{
+				return super.isCanceled() || monitor.isCanceled();
+			}
+		};
+		ExecutorService executor = Activator.getDefault().getValidationExecutor(parallelism);
+		CompletionService<IFile> completionService = new ExecutorCompletionService<IFile>(executor);
+		Iterator<IFile> queued = files.iterator();
+		int running = 0;
+		try
+		{
+			for (; running < parallelism && queued.hasNext(); running++)
 			{
-				@Override
-				public boolean visit(IResourceProxy proxy) throws CoreException
+				submit(completionService, validator, queued.next(), workerMonitor);
+			}
+			while (running > 0)
+			{
+				checkCanceled(monitor);
+				Future<IFile> future = completionService.poll(100L, TimeUnit.MILLISECONDS);
+				if (future == null)
+					continue;
+				running--;
+				if (queued.hasNext())
 				{
-					if (proxy.isDerived())
-						return false;
-
-					if (proxy.getType() == IResource.FILE && proxy.getName().endsWith(".xml"))
-					{
-						IFile file = (IFile)proxy.requestResource();
-						IContentDescription contentDesc = file.getContentDescription();
-						if (contentDesc != null)
-						{
-							IContentType contentType = contentDesc.getContentType();
-							if (contentType != null
-								&& (contentType.isKindOf(configContentType) || contentType.isKindOf(springConfigContentType)))
-							{
-								file.deleteMarkers(XmlValidator.MARKER_ID, false, IResource.DEPTH_ZERO);
-							}
-						}
-					}
-					return true;
+					submit(completionService, validator, queued.next(), workerMonitor);
+					running++;
 				}
-			}, IContainer.NONE);
-
-			TypeAliasCache.getInstance().remove(project);
-			BeanPropertyCache.clearBeanPropertyCache(project);
-			MapperNamespaceCache.getInstance().remove(project);
-			ConfigRegistry.getInstance().remove(project);
+				try
+				{
+					monitor.subTask(pattern.format(new Object[]{
+						future.get().getName(), current++, totalWork
+					}));
+				}
+				catch (ExecutionException e)
+				{
+					if (!(e.getCause() instanceof OperationCanceledException))
+						Activator.log(Status.ERROR, "Error occurred during validation.", e.getCause());
+				}
+				monitor.worked(1);
+			}
 		}
-		catch (CoreException e)
+		catch (InterruptedException e)
 		{
-			Activator.log(Status.ERROR, e.getMessage(), e);
+			Thread.currentThread().interrupt();
+			forgetLastBuiltState();
+			throw new OperationCanceledException();
+		}
+		finally
+		{
+			// Running validations stop at their next cancellation check.
+			workerMonitor.setCanceled(true);
+			awaitWorkers(completionService, running);
 		}
 	}
 
-	private int countResources()
+	private void submit(CompletionService<IFile> completionService,
+		final XmlValidator validator, final IFile file, final IProgressMonitor workerMonitor)
 	{
+		completionService.submit(new Callable<IFile>()
+		{
+			@Override
+			public IFile call() throws Exception
+			{
+				if (!workerMonitor.isCanceled())
+					validateFile(validator, file, workerMonitor);
+				return file;
+			}
+		});
+	}
+
+	/**
+	 * Waits up to {@link #WORKER_WAIT_MILLIS} for the running validations, so that they
+	 * rarely overlap with the next build.
+	 */
+	private void awaitWorkers(CompletionService<IFile> completionService, int running)
+	{
+		long deadline = System.currentTimeMillis() + WORKER_WAIT_MILLIS;
 		try
 		{
-			CountResourceVisitor visitor = new CountResourceVisitor();
-			getProject().accept(visitor, IContainer.NONE);
-			return visitor.count;
+			for (; running > 0; running--)
+			{
+				long timeout = deadline - System.currentTimeMillis();
+				if (timeout <= 0L
+					|| completionService.poll(timeout, TimeUnit.MILLISECONDS) == null)
+					return;
+			}
 		}
-		catch (CoreException e)
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void validateFile(XmlValidator validator, IFile file, IProgressMonitor monitor)
+	{
+		if (file.exists())
+			validator.validate(file, IResourceDelta.NO_CHANGE, new ValidationState(), monitor);
+	}
+
+	/**
+	 * @return The number of validation threads. Zero or less in the preference means the number
+	 *         of available processors.
+	 */
+	private int getParallelism()
+	{
+		int parallelism = Activator.getPreferenceInt(getProject(), PREF_VALIDATION_PARALLELISM,
+			0);
+		return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+	}
+
+	private void checkCanceled(IProgressMonitor monitor)
+	{
+		if (monitor.isCanceled())
 		{
-			Activator.log(Status.WARNING, e.getMessage(), e);
-			return IProgressMonitor.UNKNOWN;
+			forgetLastBuiltState();
+			throw new OperationCanceledException();
 		}
 	}
 
-	private class CountResourceVisitor implements IResourceProxyVisitor
+	@Override
+	protected void clean(IProgressMonitor monitor) throws CoreException
 	{
-		int count;
+		try
+		{
+			IProject project = getProject();
+			XmlFileScanner.getInstance().remove(project);
+			ScanResult result = scan(monitor);
+			for (Kind kind : new Kind[]{
+				Kind.CONFIG, Kind.SPRING_CONFIG
+			})
+			{
+				for (IFile file : result.getFiles(kind))
+				{
+					file.deleteMarkers(XmlValidator.MARKER_ID, false, IResource.DEPTH_ZERO);
+				}
+			}
 
-		@Override
-		public boolean visit(IResourceProxy proxy) throws CoreException
+			TypeAliasCache.getInstance().remove(project);
+			BeanPropertyCache.clearBeanPropertyCache(project);
+			MapperNamespaceCache.getInstance().remove(project);
+			MapperMethodCache.getInstance().remove(project.getName());
+			ConfigRegistry.getInstance().remove(project);
+		}
+		catch (CoreException e)
 		{
-			if (proxy.isDerived())
-				return false;
-			count++;
-			return true;
+			Activator.log(Status.ERROR, e.getMessage(), e);
 		}
 	}
 }
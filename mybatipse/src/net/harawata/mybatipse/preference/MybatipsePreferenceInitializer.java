@@ -29,6 +29,16 @@ public class MybatipsePreferenceInitializer extends AbstractPreferenceInitialize
 		IEclipsePreferences node = DefaultScope.INSTANCE.getNode(PLUGIN_ID);
 		//		node.put(PREF_PRIMARY_CONFIG_PATH, ""); //$NON-NLS-N$
 		//		node.put(PREF_DISABLE_TYPE_ALIAS_RESOLUTION, "false"); //$NON-NLS-N$
+		// 0 : the number of available processors
+		node.putInt(PREF_VALIDATION_PARALLELISM, 0);
+		// The total number of bean properties kept in the cache. 0 : unlimited
+		node.putLong(PREF_BEAN_CACHE_MAX_WEIGHT, 100000L);
+		node.putBoolean(PREF_BEAN_CACHE_SOFT_VALUES, false);
+		// Milliseconds to wait for further changes before validating affected mappers.
+		node.putInt(PREF_REVALIDATION_DELAY, 500);
+		// Comma separated folder globs relative to the project. Empty includes : all folders
+		node.put(PREF_SCAN_INCLUDES, ""); //$NON-NLS-1$
+		node.put(PREF_SCAN_EXCLUDES, "target,node_modules,.git"); //$NON-NLS-1$
 	}
 
 }
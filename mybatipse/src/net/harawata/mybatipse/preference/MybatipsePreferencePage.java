@@ -14,7 +14,10 @@ package net.harawata.mybatipse.preference;
 import static net.harawata.mybatipse.MybatipseConstants.*;
 
 import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.preference.IntegerFieldEditor;
+import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
@@ -52,6 +55,29 @@ public class MybatipsePreferencePage extends ScopedFieldEditorPreferencePage imp
 		customTypeAliases = new CustomTypeAliasListEditor(PREF_CUSTOM_TYPE_ALIASES,
 			"Custom type aliases", parent);
 		addField(customTypeAliases);
+		IntegerFieldEditor parallelism = new IntegerFieldEditor(PREF_VALIDATION_PARALLELISM,
+			"Validation threads (0 = number of processors)", parent);
+		parallelism.setValidRange(0, 64);
+		addField(parallelism);
+		addField(new StringFieldEditor(PREF_SCAN_INCLUDES,
+			"Folders to search for XML files (comma separated globs, empty = all)", parent));
+		addField(new StringFieldEditor(PREF_SCAN_EXCLUDES,
+			"Folders to skip (comma separated globs)", parent));
+		if (!isProjectPropertyPage())
+		{
+			// The bean property cache is shared by all projects.
+			IntegerFieldEditor beanCacheMaxWeight = new IntegerFieldEditor(
+				PREF_BEAN_CACHE_MAX_WEIGHT, "Max bean properties in cache (0 = unlimited)", parent);
+			beanCacheMaxWeight.setValidRange(0, Integer.MAX_VALUE);
+			addField(beanCacheMaxWeight);
+			addField(new BooleanFieldEditor(PREF_BEAN_CACHE_SOFT_VALUES,
+				"Release cached bean properties under memory pressure", parent));
+			// Changed Java types are revalidated by a workspace wide job.
+			IntegerFieldEditor revalidationDelay = new IntegerFieldEditor(PREF_REVALIDATION_DELAY,
+				"Delay before validating mappers affected by changes (ms)", parent);
+			revalidationDelay.setValidRange(0, 60000);
+			addField(revalidationDelay);
+		}
 		// if (isProjectPropertyPage())
 		// {
 		// customTypeAliases.setItemsAsString(getPreferenceStore().getString(
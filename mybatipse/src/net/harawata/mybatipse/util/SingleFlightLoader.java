@@ -0,0 +1,147 @@
+/*-******************************************************************************
+ * Copyright (c) 2014 Iwao AVE!.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Iwao AVE! - initial API and implementation and/or initial documentation
+ *******************************************************************************/
+
+package net.harawata.mybatipse.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Makes sure that a value is loaded only once when several threads ask for the same missing
+ * key at the same time. The first thread loads and publishes the value while the others wait
+ * for it, so no one sees a half-filled value.<br>
+ * A load that is invalidated while running is returned to its callers but not published.
+ *
+ * @author Iwao AVE!
+ */
+public class SingleFlightLoader<K, V>
+{
+	private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<K, Flight<V>>();
+
+	public V get(K key, Loader<V> loader)
+	{
+		V value = loader.getCached();
+		if (value != null)
+			return value;
+
+		Flight<V> flight = new Flight<V>();
+		Flight<V> existing = flights.putIfAbsent(key, flight);
+		if (existing != null)
+		{
+			if (existing.owner == Thread.currentThread())
+			{
+				// Re-entered while loading the same key.
+				return loader.load();
+			}
+			if (existing.await())
+				return existing.value;
+			// The owner has failed or this thread has been interrupted.
+			return Thread.currentThread().isInterrupted() ? loader.load() : get(key, loader);
+		}
+
+		try
+		{
+			// May have been published after the first check.
+			value = loader.getCached();
+			if (value == null)
+			{
+				value = loader.load();
+				synchronized (this)
+				{
+					if (flights.remove(key, flight))
+						loader.publish(value);
+				}
+			}
+			flight.value = value;
+			flight.succeeded = true;
+			return value;
+		}
+		finally
+		{
+			flights.remove(key, flight);
+			flight.done.countDown();
+		}
+	}
+
+	/**
+	 * Prevents the running load of the key, if any, from being published.<br>
+	 * Call this before removing the published value so that a load finishing in between cannot
+	 * publish a stale value.
+	 */
+	public synchronized void invalidate(K key)
+	{
+		flights.remove(key);
+	}
+
+	public synchronized void invalidateAll()
+	{
+		flights.clear();
+	}
+
+	/**
+	 * Same as {@link #invalidate(Object)} for all the keys accepted by the filter.
+	 */
+	public synchronized void invalidateAll(KeyFilter<K> filter)
+	{
+		for (Iterator<K> it = flights.keySet().iterator(); it.hasNext();)
+		{
+			if (filter.accept(it.next()))
+				it.remove();
+		}
+	}
+
+	public interface KeyFilter<K>
+	{
+		boolean accept(K key);
+	}
+
+	public interface Loader<V>
+	{
+		/**
+		 * @return The published value or <code>null</code> if there is none.
+		 */
+		V getCached();
+
+		V load();
+
+		void publish(V value);
+	}
+
+	private static class Flight<V>
+	{
+		private final Thread owner = Thread.currentThread();
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile V value;
+
+		private volatile boolean succeeded;
+
+		/**
+		 * @return <code>false</code> if the owner has failed or the wait has been interrupted.
+		 */
+		private boolean await()
+		{
+			try
+			{
+				done.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return succeeded;
+		}
+	}
+}
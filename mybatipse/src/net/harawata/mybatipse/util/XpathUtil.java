@@ -11,60 +11,198 @@
 
 package net.harawata.mybatipse.util;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathVariableResolver;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
+ * Evaluates XPath expressions with compiled expressions cached per thread.<br>
+ * Neither {@link XPath} nor {@link XPathExpression} is thread-safe, so each thread keeps its
+ * own engine and cache. Dynamic values should be passed as variables (e.g.
+ * <code>//sql[@id=$id]</code>) so that the expression text stays constant and is compiled
+ * only once.
+ *
  * @author Iwao AVE!
  */
 public class XpathUtil
 {
-	public static boolean xpathBool(Node node, String expression) throws XPathExpressionException
+	private static final int MAX_CACHED_EXPRESSIONS = 128;
+
+	private static final ThreadLocal<XpathEngine> engine = new ThreadLocal<XpathEngine>()
 	{
-		return ((Boolean)evaluateXpath(expression, node, XPathConstants.BOOLEAN, null)).booleanValue();
-	}
+		@Override
+		protected XpathEngine initialValue()
+		{
+			return new XpathEngine();
+		}
+	};
 
-	public static String xpathString(Node node, String expression)
+	public static boolean xpathBool(Node node, String expression, String... variables)
 		throws XPathExpressionException
 	{
-		return (String)evaluateXpath(expression, node, XPathConstants.STRING, null);
+		return ((Boolean)evaluateXpath(expression, node, XPathConstants.BOOLEAN, null, variables)).booleanValue();
 	}
 
-	public static Node xpathNode(Node node, String expression) throws XPathExpressionException
+	public static String xpathString(Node node, String expression, String... variables)
+		throws XPathExpressionException
 	{
-		return (Node)evaluateXpath(expression, node, XPathConstants.NODE, null);
+		return (String)evaluateXpath(expression, node, XPathConstants.STRING, null, variables);
 	}
 
-	public static NodeList xpathNodes(Node node, String expression)
+	public static Node xpathNode(Node node, String expression, String... variables)
 		throws XPathExpressionException
 	{
-		return xpathNodes(node, expression, null);
+		return (Node)evaluateXpath(expression, node, XPathConstants.NODE, null, variables);
 	}
 
-	public static NodeList xpathNodes(Node node, String expression, NamespaceContext nsContext)
+	public static NodeList xpathNodes(Node node, String expression, String... variables)
 		throws XPathExpressionException
 	{
-		return (NodeList)evaluateXpath(expression, node, XPathConstants.NODESET, nsContext);
+		return xpathNodes(node, expression, null, variables);
 	}
 
+	public static NodeList xpathNodes(Node node, String expression, NamespaceContext nsContext,
+		String... variables) throws XPathExpressionException
+	{
+		return (NodeList)evaluateXpath(expression, node, XPathConstants.NODESET, nsContext,
+			variables);
+	}
+
+	/**
+	 * @param variables Pairs of variable name and value, i.e. <code>"id", sqlId</code> binds
+	 *          <code>$id</code> in the expression.
+	 */
 	public static Object evaluateXpath(String expression, Object node, QName returnType,
-		NamespaceContext nsContext) throws XPathExpressionException
+		NamespaceContext nsContext, String... variables) throws XPathExpressionException
+	{
+		XpathEngine xpathEngine = engine.get();
+		XPathExpression xpathExpr = xpathEngine.compile(expression, nsContext);
+		xpathEngine.bind(variables);
+		try
+		{
+			return xpathExpr.evaluate(node, returnType);
+		}
+		finally
+		{
+			xpathEngine.unbind();
+		}
+	}
+
+	private static class XpathEngine implements XPathVariableResolver
+	{
+		private final XPath xpath;
+
+		private final Map<String, Object> variables = new HashMap<String, Object>();
+
+		private final Map<ExpressionKey, XPathExpression> cache = new LinkedHashMap<ExpressionKey, XPathExpression>(
+			MAX_CACHED_EXPRESSIONS, 0.75f, true)
+		{
+			private static final long serialVersionUID = 6286431402781263416L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<ExpressionKey, XPathExpression> eldest)
+			{
+				return size() > MAX_CACHED_EXPRESSIONS;
+			}
+		};
+
+		private XpathEngine()
+		{
+			XPathFactory xpathFactory = XPathFactory.newInstance();
+			// reset() restores the resolver set to the factory.
+			xpathFactory.setXPathVariableResolver(this);
+			xpath = xpathFactory.newXPath();
+		}
+
+		private XPathExpression compile(String expression, NamespaceContext nsContext)
+			throws XPathExpressionException
+		{
+			ExpressionKey key = new ExpressionKey(expression, nsContext);
+			XPathExpression xpathExpr = cache.get(key);
+			if (xpathExpr == null)
+			{
+				xpath.reset();
+				if (nsContext != null)
+				{
+					xpath.setNamespaceContext(nsContext);
+				}
+				xpathExpr = xpath.compile(expression);
+				cache.put(key, xpathExpr);
+			}
+			return xpathExpr;
+		}
+
+		private void bind(String[] pairs)
+		{
+			if (pairs == null)
+				return;
+			if (pairs.length % 2 != 0)
+				throw new IllegalArgumentException("XPath variables must be name/value pairs.");
+			for (int i = 0; i < pairs.length; i += 2)
+			{
+				variables.put(pairs[i], pairs[i + 1]);
+			}
+		}
+
+		private void unbind()
+		{
+			variables.clear();
+		}
+
+		@Override
+		public Object resolveVariable(QName variableName)
+		{
+			Object value = variables.get(variableName.getLocalPart());
+			// Unbound variable evaluates to empty string rather than failing.
+			return value == null ? "" : value;
+		}
+	}
+
+	private static class ExpressionKey
 	{
-		XPathFactory xpathFactory = XPathFactory.newInstance();
-		XPath xpath = xpathFactory.newXPath();
-		if (nsContext != null)
+		private final String expression;
+
+		private final NamespaceContext nsContext;
+
+		private ExpressionKey(String expression, NamespaceContext nsContext)
+		{
+			this.expression = expression;
+			this.nsContext = nsContext;
+		}
+
+		@Override
+		public int hashCode()
 		{
-			xpath.setNamespaceContext(nsContext);
+			return 31 * expression.hashCode() + (nsContext == null ? 0 : nsContext.hashCode());
 		}
-		return xpath.evaluate(expression, node, returnType);
-		// XPathExpression xpathExpr = xpath.compile(expression);
-		// return xpathExpr.evaluate(node, returnType);
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (!(obj instanceof ExpressionKey))
+				return false;
+			ExpressionKey other = (ExpressionKey)obj;
+			return expression.equals(other.expression)
+				&& (nsContext == null ? other.nsContext == null : nsContext.equals(other.nsContext));
+		}
+	}
+
+	private XpathUtil()
+	{
 	}
 }
@@ -13,15 +13,11 @@
 
 package net.harawata.mybatipse.view;
 
-import javax.xml.xpath.XPathExpressionException;
-
-import net.harawata.mybatipse.Activator;
+import net.harawata.mybatipse.mybatis.MapperDocumentIndex;
 import net.harawata.mybatipse.mybatis.MapperNamespaceCache;
 import net.harawata.mybatipse.mybatis.MybatipseXmlUtil;
-import net.harawata.mybatipse.util.XpathUtil;
 
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.runtime.Status;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
@@ -215,29 +211,23 @@ public class MyBatisSqlView extends ViewPart
 				return null;
 
 			int lastDot = refId.lastIndexOf('.');
-			try
+			if (lastDot == -1)
 			{
-				if (lastDot == -1)
-				{
-					// Internal reference.
-					Document domDoc = includeElement.getOwnerDocument();
-					return (ElementImpl)XpathUtil.xpathNode(domDoc, "//sql[@id='" + refId + "']");
-				}
-				else if (lastDot + 1 < refId.length())
-				{
-					// External reference.
-					IJavaProject project = MybatipseXmlUtil.getJavaProject(includeElement.getStructuredDocument());
-					String namespace = refId.substring(0, lastDot);
-					String sqlId = refId.substring(lastDot + 1);
-					IFile mapperFile = MapperNamespaceCache.getInstance().get(project, namespace, null);
-
-					IDOMDocument mapperDocument = MybatipseXmlUtil.getMapperDocument(mapperFile);
-					return (ElementImpl)XpathUtil.xpathNode(mapperDocument, "//sql[@id='" + sqlId + "']");
-				}
+				// Internal reference.
+				Document domDoc = includeElement.getOwnerDocument();
+				return (ElementImpl)MapperDocumentIndex.get(domDoc).getElement("sql", refId);
 			}
-			catch (XPathExpressionException e)
+			else if (lastDot + 1 < refId.length())
 			{
-				Activator.log(Status.ERROR, "Failed to resolve included sql element.", e);
+				// External reference.
+				IJavaProject project = MybatipseXmlUtil.getJavaProject(includeElement.getStructuredDocument());
+				String namespace = refId.substring(0, lastDot);
+				String sqlId = refId.substring(lastDot + 1);
+				IFile mapperFile = MapperNamespaceCache.getInstance().get(project, namespace, null);
+
+				IDOMDocument mapperDocument = MybatipseXmlUtil.getMapperDocument(mapperFile);
+				if (mapperDocument != null)
+					return (ElementImpl)MapperDocumentIndex.get(mapperDocument).getElement("sql", sqlId);
 			}
 			return null;
 		}